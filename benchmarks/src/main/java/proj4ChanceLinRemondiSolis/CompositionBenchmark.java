@@ -0,0 +1,140 @@
+/*
+ * File: CompositionBenchmark.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the editing paths of CompositionManager and building
+ * its song.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+// don't wait for the sequencer's thread when a fork is done, and let the
+// synthesizer be opened with its own latency as the editor does
+@Fork(value = 1, jvmArgsAppend = {"-Djmh.shutdownTimeout=0",
+        "--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompositionBenchmark {
+
+    /**
+     * The number of mouse positions cycled through by the hit test
+     */
+    private static final int NUM_CLICKS = 1024;
+
+    /**
+     * How far the drag box moves on each frame
+     */
+    private static final int DRAG_STEP = 10;
+
+    /**
+     * The number of notes in the composition
+     */
+    @Param({"1000", "10000", "100000"})
+    public int noteCount;
+
+    /**
+     * The composition being benchmarked
+     */
+    private CompositionManager manager;
+
+    /**
+     * Mouse positions for the hit test
+     */
+    private double[] clickXs, clickYs;
+
+    /**
+     * The next mouse position to use
+     */
+    private int nextClick;
+
+    /**
+     * The direction the drag box moves on the next frame
+     */
+    private int dragDirection = 1;
+
+    /**
+     * Creates the composition and starts a box selection over part of it.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.manager = Compositions.create(this.noteCount);
+
+        Random random = new Random(0);
+        int width = Compositions.getWidth(this.noteCount);
+        this.clickXs = new double[NUM_CLICKS];
+        this.clickYs = new double[NUM_CLICKS];
+        for (int i = 0; i < NUM_CLICKS; i++) {
+            this.clickXs[i] = random.nextDouble() * width;
+            this.clickYs[i] = random.nextDouble() * 1280;
+        }
+
+        // there are no notes left of the sheet, so this starts a drag box
+        this.manager.handleDragStartedAtLocation(-DRAG_STEP, 5, false);
+        this.manager.handleDragMoved(Math.min(width, 2000), 600, false);
+    }
+
+    /**
+     * Closes the composition's MIDI devices.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.manager.close();
+    }
+
+    @Benchmark
+    public Sequence buildSequence() throws InvalidMidiDataException {
+        return MidiPlayer.buildSequence(this.manager.getNoteStore(),
+                CompositionManager.RESOLUTION, CompositionManager.BEATS_PER_MINUTE);
+    }
+
+    @Benchmark
+    public double calculateStopTime() {
+        return this.manager.calculateStopTime();
+    }
+
+    @Benchmark
+    public Optional<MusicalNote> getNoteAtMouseClick() {
+        int click = this.nextClick;
+        this.nextClick = (click + 1) % NUM_CLICKS;
+        return this.manager.getNoteAtMouseClick(this.clickXs[click], this.clickYs[click]);
+    }
+
+    @Benchmark
+    public void dragBoxFrame() {
+        this.dragDirection = -this.dragDirection;
+        this.manager.handleDragMoved(this.dragDirection * DRAG_STEP,
+                this.dragDirection * DRAG_STEP, false);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * File: Compositions.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import javafx.scene.layout.Pane;
+
+import java.util.Random;
+
+/**
+ * This class generates compositions for the benchmarks.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class Compositions {
+
+    /**
+     * The duration and volume of every note, those of a note added with
+     * the mouse
+     */
+    private static final int NOTE_DURATION = 100, NOTE_VOLUME = 100;
+
+    /**
+     * The horizontal space given to each note, a little more than the
+     * width of a new note so that no two notes overlap
+     */
+    public static final int NOTE_SPACING = 120;
+
+    /**
+     * Creates the notes of a composition with the given number of notes
+     * spread over all the pitch rows and instruments. The same count
+     * always gives the same notes.
+     *
+     * @param noteCount the number of notes
+     * @return the store holding the notes
+     */
+    public static NoteStore createNotes(int noteCount) {
+        NoteStore notes = new NoteStore();
+        Random random = new Random(noteCount);
+        for (int i = 0; i < noteCount; i++) {
+            int channel = random.nextInt(Instruments.NUM_CHANNELS);
+            notes.add(127 - i % 128, (i / 128) * NOTE_SPACING + random.nextInt(15),
+                    NOTE_DURATION, channel, channel, NOTE_VOLUME);
+        }
+        return notes;
+    }
+
+    /**
+     * Creates a composition holding the notes made by createNotes. The
+     * manager opens MIDI devices of its own, so it must be closed once
+     * done with.
+     *
+     * @param noteCount the number of notes
+     * @return the manager of the new composition
+     */
+    public static CompositionManager create(int noteCount) {
+        CompositionManager manager = new CompositionManager(null, new Pane(), null);
+        manager.replaceNotes(createNotes(noteCount));
+        return manager;
+    }
+
+    /**
+     * @param noteCount the number of notes in a composition made by create
+     * @return the width of the composition in pixels
+     */
+    public static int getWidth(int noteCount) {
+        return (noteCount / 128 + 1) * NOTE_SPACING;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * File: DeleteBenchmark.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks deleting a whole composition after Select All. Every
+ * measurement needs a fresh composition, so each iteration is one delete.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+// don't wait for the sequencer's thread when a fork is done, and let the
+// synthesizer be opened with its own latency as the editor does
+@Fork(value = 1, jvmArgsAppend = {"-Djmh.shutdownTimeout=0",
+        "--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DeleteBenchmark {
+
+    /**
+     * The number of notes in the composition
+     */
+    @Param({"1000", "10000", "100000"})
+    public int noteCount;
+
+    /**
+     * The composition being benchmarked
+     */
+    private CompositionManager manager;
+
+    /**
+     * Creates the manager, whose MIDI devices are opened once per trial.
+     */
+    @Setup(Level.Trial)
+    public void setUpManager() {
+        this.manager = Compositions.create(0);
+    }
+
+    /**
+     * Fills the composition with fresh notes and selects all of them.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        this.manager.replaceNotes(Compositions.createNotes(this.noteCount));
+        this.manager.selectAllNotes();
+    }
+
+    /**
+     * Closes the composition's MIDI devices.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.manager.close();
+    }
+
+    @Benchmark
+    public CompositionManager deleteNotes() {
+        this.manager.deleteNotes();
+        return this.manager;
+    }
+}
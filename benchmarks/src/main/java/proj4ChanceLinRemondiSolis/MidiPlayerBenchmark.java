@@ -0,0 +1,116 @@
+/*
+ * File: MidiPlayerBenchmark.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks adding single events to a MidiPlayer that already holds
+ * the events of a composition.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+// don't wait for the sequencer's thread when a fork is done, and let the
+// synthesizer be opened with its own latency as the editor does
+@Fork(value = 1, jvmArgsAppend = {"-Djmh.shutdownTimeout=0",
+        "--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MidiPlayerBenchmark {
+
+    /**
+     * The number of start ticks cycled through
+     */
+    private static final int NUM_TICKS = 1024;
+
+    /**
+     * The number of notes already in the player
+     */
+    @Param({"1000", "10000", "100000"})
+    public int noteCount;
+
+    /**
+     * The player being benchmarked
+     */
+    private MidiPlayer midiPlayer;
+
+    /**
+     * Start ticks for the added events
+     */
+    private int[] ticks;
+
+    /**
+     * The next start tick to use
+     */
+    private int nextTick;
+
+    /**
+     * Picks the start ticks of the added events.
+     */
+    @Setup(Level.Trial)
+    public void setUpTicks() {
+        Random random = new Random(0);
+        int width = Compositions.getWidth(this.noteCount);
+        this.ticks = new int[NUM_TICKS];
+        for (int i = 0; i < NUM_TICKS; i++) {
+            this.ticks[i] = random.nextInt(width);
+        }
+        this.midiPlayer = new MidiPlayer(CompositionManager.RESOLUTION,
+                CompositionManager.BEATS_PER_MINUTE);
+    }
+
+    /**
+     * Closes the player's MIDI devices.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.midiPlayer.close();
+    }
+
+    /**
+     * Refills the player with the notes of a composition, so the events
+     * added by the last iteration do not pile up.
+     */
+    @Setup(Level.Iteration)
+    public void setUpPlayer() throws InvalidMidiDataException {
+        this.midiPlayer.setSequence(this.midiPlayer.buildSequence(
+                Compositions.createNotes(this.noteCount)));
+    }
+
+    @Benchmark
+    public MidiEvent addMidiEvent() {
+        int tick = this.ticks[this.nextTick];
+        this.nextTick = (this.nextTick + 1) % NUM_TICKS;
+        return this.midiPlayer.addMidiEvent(ShortMessage.NOTE_ON, 60, 100, tick, 0);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * File: CompositionFileTest.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that compositions saved by CompositionFile load back unchanged,
+ * and that damaged files are reported rather than crashing the loader.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+class CompositionFileTest {
+
+    /**
+     * The number of ticks per beat of the compositions
+     */
+    private static final int RESOLUTION = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsTheNotesSaved() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(1), 5000);
+        Path path = this.directory.resolve("notes.notes");
+        new CompositionFile(RESOLUTION).save(notes, path);
+
+        NoteStore loaded = new NoteStore();
+        new CompositionFile(RESOLUTION).load(path, loaded);
+        assertEquals(TestNotes.list(notes), TestNotes.list(loaded));
+    }
+
+    @Test
+    void keepsNegativeAndDecreasingStarts() throws IOException {
+        NoteStore notes = new NoteStore();
+        notes.add(60, -1, 10, 0, 0, 100);
+        notes.add(61, 0, 10, 0, 0, 100);
+        notes.add(62, -100000, 10, 0, 0, 100);
+        notes.add(63, Integer.MAX_VALUE / 2, 10, 0, 0, 100);
+        notes.add(64, Integer.MIN_VALUE / 2, 10, 0, 0, 100);
+        Path path = this.directory.resolve("negative.notes");
+        new CompositionFile(RESOLUTION).save(notes, path);
+
+        NoteStore loaded = new NoteStore();
+        new CompositionFile(RESOLUTION).load(path, loaded);
+        assertEquals(TestNotes.list(notes), TestNotes.list(loaded));
+    }
+
+    @Test
+    void leavesOutNotesDraggedOffTheSheet() throws IOException {
+        NoteStore notes = new NoteStore();
+        notes.add(60, 0, 10, 0, 0, 100);
+        notes.add(-3, 0, 10, 0, 0, 100);
+        notes.add(130, 0, 10, 0, 0, 100);
+        Path path = this.directory.resolve("offSheet.notes");
+        new CompositionFile(RESOLUTION).save(notes, path);
+
+        NoteStore loaded = new NoteStore();
+        new CompositionFile(RESOLUTION).load(path, loaded);
+        assertEquals(List.of(TestNotes.describe(notes, 0)), TestNotes.list(loaded));
+    }
+
+    @Test
+    void scalesFilesOfAnotherResolution() throws IOException {
+        NoteStore notes = new NoteStore();
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            notes.add(random.nextInt(128), 48 * (random.nextInt(2000) - 100),
+                    48 * random.nextInt(50), random.nextInt(16), random.nextInt(8),
+                    random.nextInt(128));
+        }
+        Path path = this.directory.resolve("scaled.notes");
+        new CompositionFile(480).save(notes, path);
+
+        NoteStore loaded = new NoteStore();
+        new CompositionFile(RESOLUTION).load(path, loaded);
+        NoteStore expected = new NoteStore();
+        for (int id = 0; id < notes.getIdLimit(); id++) {
+            expected.add(notes.getPitch(id), notes.getStartTick(id) * RESOLUTION / 480,
+                    notes.getDuration(id) * RESOLUTION / 480, notes.getChannel(id),
+                    notes.getTrackIndex(id), notes.getVolume(id));
+        }
+        assertEquals(TestNotes.list(expected), TestNotes.list(loaded));
+    }
+
+    @Test
+    void addsAfterTheNotesAlreadyInTheStore() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(3), 100);
+        Path path = this.directory.resolve("added.notes");
+        new CompositionFile(RESOLUTION).save(notes, path);
+
+        NoteStore loaded = new NoteStore();
+        loaded.add(1, 2, 3, 4, 5, 6);
+        new CompositionFile(RESOLUTION).load(path, loaded);
+        assertEquals(101, loaded.size());
+        assertEquals("pitch 1 start 2 duration 3 channel 4 track 5 volume 6",
+                TestNotes.describe(loaded, 0));
+    }
+
+    @Test
+    void savesAnEmptyComposition() throws IOException {
+        Path path = this.directory.resolve("empty.notes");
+        new CompositionFile(RESOLUTION).save(new NoteStore(), path);
+
+        NoteStore loaded = new NoteStore();
+        new CompositionFile(RESOLUTION).load(path, loaded);
+        assertEquals(0, loaded.size());
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path empty = Files.write(this.directory.resolve("empty"), new byte[0]);
+        assertThrows(IOException.class,
+                () -> new CompositionFile(RESOLUTION).load(empty, new NoteStore()));
+        Path text = Files.write(this.directory.resolve("text"),
+                "not a composition file".getBytes());
+        assertThrows(IOException.class,
+                () -> new CompositionFile(RESOLUTION).load(text, new NoteStore()));
+    }
+
+    @Test
+    void rejectsEveryTruncatedFile() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(4), 40);
+        Path path = this.directory.resolve("whole.notes");
+        new CompositionFile(RESOLUTION).save(notes, path);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Path truncated = this.directory.resolve("truncated.notes");
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class,
+                    () -> new CompositionFile(RESOLUTION).load(truncated, new NoteStore()),
+                    "truncated to " + length + " bytes");
+        }
+    }
+
+    @Test
+    void reportsCorruptFilesAsIOExceptions() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(5), 40);
+        Path path = this.directory.resolve("whole.notes");
+        new CompositionFile(RESOLUTION).save(notes, path);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Random random = new Random(6);
+        Path corrupt = this.directory.resolve("corrupt.notes");
+        for (int trial = 0; trial < 2000; trial++) {
+            byte[] damaged = bytes.clone();
+            for (int flips = 1 + random.nextInt(3); flips > 0; flips--) {
+                damaged[random.nextInt(damaged.length)] ^= (byte) (1 + random.nextInt(255));
+            }
+            Files.write(corrupt, damaged);
+            NoteStore loaded = new NoteStore();
+            try {
+                new CompositionFile(RESOLUTION).load(corrupt, loaded);
+            } catch (IOException e) {
+                // reported, as a damaged file should be
+            }
+            for (int id = 0; id < loaded.getIdLimit(); id++) {
+                assertTrue(loaded.getPitch(id) >= 0 && loaded.getPitch(id) < 128);
+                assertTrue(loaded.getChannel(id) >= 0 && loaded.getChannel(id) < 16);
+            }
+        }
+    }
+}
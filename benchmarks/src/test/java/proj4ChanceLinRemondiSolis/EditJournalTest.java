@@ -0,0 +1,173 @@
+/*
+ * File: EditJournalTest.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that a composition recorded by EditJournal is recovered with the
+ * same notes and ids, and that a damaged journal recovers what it can.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+class EditJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversTheSnapshotAndTheEditsAfterIt() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(1), 500);
+        EditJournal journal = new EditJournal(this.directory);
+        journal.snapshot(notes, 3);
+        edit(notes, journal, new Random(2), 2000);
+        journal.instrumentChanged(5);
+        journal.close();
+
+        NoteStore recovered = new NoteStore();
+        EditJournal reopened = new EditJournal(this.directory);
+        assertEquals(5, reopened.recover(recovered));
+        reopened.close();
+        assertEquals(TestNotes.listWithIds(notes), TestNotes.listWithIds(recovered));
+    }
+
+    @Test
+    void keepsNotesDraggedOffTheSheet() throws IOException {
+        NoteStore notes = new NoteStore();
+        EditJournal journal = new EditJournal(this.directory);
+        journal.snapshot(notes, -1);
+        int id = notes.add(60, 100, 10, 0, 0, 100);
+        journal.noteAdded(new MusicalNote(notes, id, null));
+        notes.setPitch(id, -20);
+        notes.setStartTick(id, -5000);
+        journal.noteChanged(new MusicalNote(notes, id, null));
+        journal.close();
+
+        NoteStore recovered = new NoteStore();
+        EditJournal reopened = new EditJournal(this.directory);
+        assertEquals(-1, reopened.recover(recovered));
+        reopened.close();
+        assertEquals(TestNotes.listWithIds(notes), TestNotes.listWithIds(recovered));
+    }
+
+    @Test
+    void ignoresATornLastFrame() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(3), 100);
+        EditJournal journal = new EditJournal(this.directory);
+        journal.snapshot(notes, 0);
+        edit(notes, journal, new Random(4), 200);
+        journal.close();
+        Files.write(this.directory.resolve("composition.journal"),
+                new byte[]{0, 0, 0, 50, 1, 2, 3, 4, 9, 9}, StandardOpenOption.APPEND);
+
+        NoteStore recovered = new NoteStore();
+        EditJournal reopened = new EditJournal(this.directory);
+        reopened.recover(recovered);
+        reopened.close();
+        assertEquals(TestNotes.listWithIds(notes), TestNotes.listWithIds(recovered));
+    }
+
+    @Test
+    void recoversWhatATruncatedJournalHolds() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(5), 20);
+        EditJournal journal = new EditJournal(this.directory);
+        journal.snapshot(notes, 0);
+        edit(notes, journal, new Random(6), 100);
+        journal.close();
+        Path journalPath = this.directory.resolve("composition.journal");
+        byte[] bytes = Files.readAllBytes(journalPath);
+
+        for (int length = 0; length <= bytes.length; length++) {
+            Files.write(journalPath, Arrays.copyOf(bytes, length));
+            NoteStore recovered = new NoteStore();
+            EditJournal reopened = new EditJournal(this.directory);
+            reopened.recover(recovered);
+            reopened.close();
+            if (length == bytes.length) {
+                assertEquals(TestNotes.listWithIds(notes), TestNotes.listWithIds(recovered));
+            }
+        }
+    }
+
+    @Test
+    void leavesNothingToRecoverOnceDeleted() throws IOException {
+        NoteStore notes = TestNotes.createAnyNotes(new Random(7), 100);
+        EditJournal journal = new EditJournal(this.directory);
+        journal.snapshot(notes, 2);
+        journal.delete();
+
+        NoteStore recovered = new NoteStore();
+        EditJournal reopened = new EditJournal(this.directory);
+        assertEquals(-1, reopened.recover(recovered));
+        reopened.close();
+        assertEquals(0, recovered.size());
+    }
+
+    @Test
+    void locksItsDirectory() throws IOException {
+        EditJournal journal = new EditJournal(this.directory);
+        assertThrows(IOException.class, () -> new EditJournal(this.directory));
+        journal.close();
+        new EditJournal(this.directory).close();
+    }
+
+    /**
+     * Makes random edits to a store, recording each in a journal.
+     *
+     * @param notes     the store to edit
+     * @param journal   the journal to record the edits in
+     * @param random    gives the edits
+     * @param editCount the number of edits
+     */
+    private static void edit(NoteStore notes, EditJournal journal, Random random,
+                             int editCount) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < notes.getIdLimit(); id++) {
+            if (notes.isLive(id)) {
+                ids.add(id);
+            }
+        }
+        for (int i = 0; i < editCount; i++) {
+            int edit = random.nextInt(3);
+            if (edit == 0 || ids.isEmpty()) {
+                int id = notes.add(random.nextInt(128), random.nextInt(20000) - 1000,
+                        random.nextInt(500), random.nextInt(16), random.nextInt(8),
+                        random.nextInt(128));
+                ids.add(id);
+                journal.noteAdded(new MusicalNote(notes, id, null));
+            } else if (edit == 1) {
+                int id = ids.get(random.nextInt(ids.size()));
+                notes.setPitch(id, random.nextInt(140) - 6);
+                notes.setStartTick(id, random.nextInt(20000) - 1000);
+                notes.setDuration(id, random.nextInt(500));
+                journal.noteChanged(new MusicalNote(notes, id, null));
+            } else {
+                int id = ids.remove(random.nextInt(ids.size()));
+                journal.noteRemoved(new MusicalNote(notes, id, null));
+                notes.remove(id);
+            }
+        }
+    }
+}
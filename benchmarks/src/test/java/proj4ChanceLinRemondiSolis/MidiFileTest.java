@@ -0,0 +1,137 @@
+/*
+ * File: MidiFileTest.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that notes written by MidiFileWriter are read back unchanged by
+ * MidiFileReader, and that damaged files are reported rather than
+ * crashing the reader.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+class MidiFileTest {
+
+    /**
+     * The number of ticks per beat and beats per minute of the compositions
+     */
+    private static final int RESOLUTION = 100, BEATS_PER_MINUTE = 60;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsTheNotesWritten() throws IOException {
+        NoteStore notes = TestNotes.createMidiNotes(new Random(1), 20000, 1);
+        Path path = this.directory.resolve("notes.mid");
+        new MidiFileWriter(RESOLUTION, BEATS_PER_MINUTE).write(notes, path);
+
+        NoteStore read = new NoteStore();
+        new MidiFileReader(RESOLUTION, BEATS_PER_MINUTE).read(path, read);
+        assertEquals(TestNotes.list(notes), TestNotes.list(read));
+    }
+
+    @Test
+    void scalesFilesOfAnotherResolutionAndTempo() throws IOException {
+        NoteStore notes = TestNotes.createMidiNotes(new Random(2), 2000, 48);
+        Path path = this.directory.resolve("scaled.mid");
+        new MidiFileWriter(480, 120).write(notes, path);
+
+        // a beat of the file is 480 ticks and half a second, which is 50
+        // ticks of the composition
+        NoteStore read = new NoteStore();
+        new MidiFileReader(RESOLUTION, BEATS_PER_MINUTE).read(path, read);
+        NoteStore expected = new NoteStore();
+        for (int id = 0; id < notes.getIdLimit(); id++) {
+            expected.add(notes.getPitch(id), notes.getStartTick(id) * 50 / 480,
+                    notes.getDuration(id) * 50 / 480, notes.getChannel(id),
+                    notes.getTrackIndex(id), notes.getVolume(id));
+        }
+        assertEquals(TestNotes.list(expected), TestNotes.list(read));
+    }
+
+    @Test
+    void leavesOutNotesThatCannotBeWritten() throws IOException {
+        NoteStore notes = new NoteStore();
+        notes.add(60, 0, 100, 0, 0, 100);
+        notes.add(61, -5, 100, 0, 0, 100);
+        notes.add(200, 0, 100, 0, 0, 100);
+        notes.add(62, 50, 0, 0, 0, 100);
+        Path path = this.directory.resolve("unwritten.mid");
+        new MidiFileWriter(RESOLUTION, BEATS_PER_MINUTE).write(notes, path);
+
+        NoteStore read = new NoteStore();
+        new MidiFileReader(RESOLUTION, BEATS_PER_MINUTE).read(path, read);
+        assertEquals(List.of(TestNotes.describe(notes, 0)), TestNotes.list(read));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path empty = Files.write(this.directory.resolve("empty"), new byte[0]);
+        assertThrows(IOException.class, () -> new MidiFileReader(RESOLUTION,
+                BEATS_PER_MINUTE).read(empty, new NoteStore()));
+        Path text = Files.write(this.directory.resolve("text"), "not a MIDI file".getBytes());
+        assertThrows(IOException.class, () -> new MidiFileReader(RESOLUTION,
+                BEATS_PER_MINUTE).read(text, new NoteStore()));
+    }
+
+    @Test
+    void rejectsEveryTruncatedFile() throws IOException {
+        NoteStore notes = TestNotes.createMidiNotes(new Random(3), 40, 10);
+        Path path = this.directory.resolve("whole.mid");
+        new MidiFileWriter(RESOLUTION, BEATS_PER_MINUTE).write(notes, path);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Path truncated = this.directory.resolve("truncated.mid");
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> new MidiFileReader(RESOLUTION,
+                            BEATS_PER_MINUTE).read(truncated, new NoteStore()),
+                    "truncated to " + length + " bytes");
+        }
+    }
+
+    @Test
+    void reportsCorruptFilesAsIOExceptions() throws IOException {
+        NoteStore notes = TestNotes.createMidiNotes(new Random(4), 40, 10);
+        Path path = this.directory.resolve("whole.mid");
+        new MidiFileWriter(RESOLUTION, BEATS_PER_MINUTE).write(notes, path);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Random random = new Random(5);
+        Path corrupt = this.directory.resolve("corrupt.mid");
+        for (int trial = 0; trial < 2000; trial++) {
+            byte[] damaged = bytes.clone();
+            for (int flips = 1 + random.nextInt(3); flips > 0; flips--) {
+                damaged[random.nextInt(damaged.length)] ^= (byte) (1 + random.nextInt(255));
+            }
+            Files.write(corrupt, damaged);
+            try {
+                new MidiFileReader(RESOLUTION, BEATS_PER_MINUTE).read(corrupt, new NoteStore());
+            } catch (IOException e) {
+                // reported, as a damaged file should be
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * File: TestNotes.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates note stores for the round-trip tests and lists
+ * their notes so two stores can be compared.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+class TestNotes {
+
+    /**
+     * Creates notes with every pitch, channel, track and volume, starts
+     * that are negative, small or far apart, and durations from none to
+     * very long.
+     *
+     * @param random    gives the notes
+     * @param noteCount the number of notes
+     * @return the store holding the notes
+     */
+    static NoteStore createAnyNotes(Random random, int noteCount) {
+        NoteStore notes = new NoteStore();
+        for (int i = 0; i < noteCount; i++) {
+            int start;
+            switch (random.nextInt(4)) {
+                case 0:
+                    start = -random.nextInt(100000);
+                    break;
+                case 1:
+                    start = random.nextInt(1 << 30);
+                    break;
+                default:
+                    start = random.nextInt(20000);
+                    break;
+            }
+            int duration = random.nextInt(10) == 0 ? random.nextInt(1 << 24)
+                    : random.nextInt(500);
+            notes.add(random.nextInt(128), start, duration, random.nextInt(16),
+                    random.nextInt(8), random.nextInt(128));
+        }
+        return notes;
+    }
+
+    /**
+     * Creates notes a MIDI file holds exactly: each on the channel of one
+     * of the instruments and in the track of that channel, heard, with
+     * its start and duration multiples of a step, and never overlapping a
+     * note of the same pitch and channel.
+     *
+     * @param random    gives the notes
+     * @param noteCount the number of notes
+     * @param step      the number of ticks every start and duration is a
+     *                  multiple of
+     * @return the store holding the notes
+     */
+    static NoteStore createMidiNotes(Random random, int noteCount, int step) {
+        NoteStore notes = new NoteStore();
+        int[] ends = new int[Instruments.NUM_CHANNELS * 128];
+        for (int i = 0; i < noteCount; i++) {
+            int channel = random.nextInt(Instruments.NUM_CHANNELS);
+            int pitch = random.nextInt(128);
+            int start = ends[channel * 128 + pitch] + step * random.nextInt(20);
+            int duration = step * (1 + random.nextInt(20));
+            ends[channel * 128 + pitch] = start + duration;
+            notes.add(pitch, start, duration, channel, channel, 1 + random.nextInt(127));
+        }
+        return notes;
+    }
+
+    /**
+     * Lists the notes of a store, leaving out their ids, in a fixed order.
+     *
+     * @param store the store to list
+     * @return each note's pitch, start, duration, channel, track and volume
+     */
+    static List<String> list(NoteStore store) {
+        List<String> notes = new ArrayList<>();
+        for (int id = 0; id < store.getIdLimit(); id++) {
+            if (store.isLive(id)) {
+                notes.add(describe(store, id));
+            }
+        }
+        Collections.sort(notes);
+        return notes;
+    }
+
+    /**
+     * Lists the notes of a store with their ids, in id order.
+     *
+     * @param store the store to list
+     * @return each note's id, pitch, start, duration, channel, track and
+     *         volume
+     */
+    static List<String> listWithIds(NoteStore store) {
+        List<String> notes = new ArrayList<>();
+        for (int id = 0; id < store.getIdLimit(); id++) {
+            if (store.isLive(id)) {
+                notes.add(id + ": " + describe(store, id));
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * @param store the store holding the note
+     * @param id    the id of the note
+     * @return the note's pitch, start, duration, channel, track and volume
+     */
+    static String describe(NoteStore store, int id) {
+        return String.format("pitch %d start %d duration %d channel %d track %d volume %d",
+                store.getPitch(id), store.getStartTick(id), store.getDuration(id),
+                store.getChannel(id), store.getTrackIndex(id), store.getVolume(id));
+    }
+}
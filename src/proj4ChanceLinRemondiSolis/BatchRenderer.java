@@ -0,0 +1,185 @@
+/*
+ * File: BatchRenderer.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a directory of compositions without the GUI.
+ *
+ * Usage: BatchRenderer inputDirectory outputDirectory [wav|mid] [workers]
+ *
+ * Every MIDI file and composition (.notes) file in the input directory is
+ * converted to the given format (wav by default) in the output directory.
+ * Each file is loaded into a NoteStore and written the way the editor
+ * exports it. The files are shared out
+ * between a fixed number of worker threads, each with its own synthesizer,
+ * and the time taken for each file is reported as it finishes.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class BatchRenderer {
+
+    /**
+     * The message printed when the arguments cannot be used
+     */
+    private static final String USAGE = "Usage: BatchRenderer inputDirectory "
+            + "outputDirectory [wav|mid] [workers]";
+
+    /**
+     * The synthesizer used by each worker thread
+     */
+    private static final ThreadLocal<WavRenderer> RENDERERS = new ThreadLocal<>();
+
+    /**
+     * Renders the files named on the command line.
+     *
+     * @param args the input directory, the output directory, and optionally
+     *             the output format and the number of workers
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        File inputDirectory = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        String format = args.length > 2 ? args[2] : "wav";
+        int numWorkers = Runtime.getRuntime().availableProcessors();
+        if (args.length > 3) {
+            try {
+                numWorkers = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                numWorkers = 0;
+            }
+        }
+        if (!format.equals("wav") && !format.equals("mid") || numWorkers < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        File[] inputs = inputDirectory.listFiles(
+                file -> file.isFile() && isInputFile(file.getName()));
+        if (inputs == null) {
+            System.err.println("Not a directory: " + inputDirectory);
+            System.exit(2);
+        }
+        outputDirectory.mkdirs();
+
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+        ArrayList<Future<String>> results = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (File input : inputs) {
+            File output = new File(outputDirectory, getBaseName(input.getName())
+                    + "." + format);
+            results.add(workers.submit(() -> convert(input, output, format)));
+        }
+        workers.shutdown();
+
+        int numFailures = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            try {
+                System.out.println(results.get(i).get());
+            } catch (ExecutionException e) {
+                numFailures++;
+                System.out.println(inputs[i].getName() + ": FAILED "
+                        + e.getCause());
+            }
+        }
+        System.out.printf("%d files, %d failed, %.1f s%n", inputs.length,
+                numFailures, (System.nanoTime() - startTime) / 1e9);
+        System.exit(numFailures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Converts one file.
+     *
+     * @param input  the MIDI or composition file to convert
+     * @param output the file to write
+     * @param format the format to write, wav or mid
+     * @return a line reporting how long the file took
+     */
+    private static String convert(File input, File output, String format)
+            throws IOException, InvalidMidiDataException, MidiUnavailableException {
+        long startTime = System.nanoTime();
+        NoteStore notes = new NoteStore();
+        if (isCompositionFile(input.getName())) {
+            new CompositionFile(CompositionManager.RESOLUTION).load(input.toPath(), notes);
+        } else {
+            new MidiFileReader(CompositionManager.RESOLUTION,
+                    CompositionManager.BEATS_PER_MINUTE).read(input.toPath(), notes);
+        }
+        if (format.equals("wav")) {
+            long length = getRenderer().render(MidiPlayer.buildSequence(notes,
+                    CompositionManager.RESOLUTION, CompositionManager.BEATS_PER_MINUTE),
+                    output);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            return String.format("%s: %.1f s of audio in %.2f s (%.1fx)",
+                    input.getName(), length / 1e6, seconds, length / 1e6 / seconds);
+        } else {
+            new MidiFileWriter(CompositionManager.RESOLUTION,
+                    CompositionManager.BEATS_PER_MINUTE).write(notes, output.toPath());
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            return String.format("%s: %d bytes in %.2f s", input.getName(),
+                    output.length(), seconds);
+        }
+    }
+
+    /**
+     * Gets the renderer of the current worker, creating it the first time.
+     *
+     * @return the worker's renderer
+     */
+    private static WavRenderer getRenderer() throws MidiUnavailableException {
+        WavRenderer renderer = RENDERERS.get();
+        if (renderer == null) {
+            renderer = new WavRenderer();
+            RENDERERS.set(renderer);
+        }
+        return renderer;
+    }
+
+    /**
+     * @param name a file name
+     * @return whether the file is a MIDI or composition file
+     */
+    private static boolean isInputFile(String name) {
+        String lowerName = name.toLowerCase();
+        return lowerName.endsWith(".mid") || lowerName.endsWith(".midi")
+                || isCompositionFile(name);
+    }
+
+    /**
+     * @param name a file name
+     * @return whether the file is a composition saved by the editor
+     */
+    private static boolean isCompositionFile(String name) {
+        return name.toLowerCase().endsWith(".notes");
+    }
+
+    /**
+     * @param name a file name
+     * @return the name without its extension
+     */
+    private static String getBaseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
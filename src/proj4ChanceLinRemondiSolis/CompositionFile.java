@@ -0,0 +1,399 @@
+/*
+ * File: CompositionFile.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class saves the notes of a NoteStore to a compact binary file and
+ * loads them back. Files are read and written through a memory-mapped
+ * buffer, straight between the file and the store's arrays.
+ *
+ * The file starts with a header:
+ *
+ *   magic "CSNT", version (short), ticks per beat (int),
+ *   number of notes (int), number of tracks (short)
+ *
+ * followed by an entry for each track that has notes:
+ *
+ *   track index (short), number of notes (int), offset of the track's
+ *   data (long), byte lengths of its start and duration columns (ints)
+ *
+ * Each track's data holds its notes in start order, one column at a time:
+ * the start ticks as zigzag varints of the difference from the previous
+ * start, the durations as varints, then a short per note packing the
+ * channel above the pitch, then a byte per note for the volume.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class CompositionFile {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The first four bytes of every composition file, "CSNT".
+     */
+    private static final int MAGIC = 0x43534E54;
+
+    /**
+     * The version of the format written.
+     */
+    private static final short VERSION = 1;
+
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * The size of a track entry in bytes.
+     */
+    private static final int TRACK_ENTRY_SIZE = 22;
+
+    /**
+     * The number of tracks a note can be in.
+     */
+    private static final int NUM_TRACKS = 8;
+
+    /**
+     * The number of ticks per beat of the composition
+     */
+    private int resolution;
+
+    /**
+     * Constructor
+     *
+     * @param resolution the number of ticks per beat of the composition;
+     *                   files saved at another resolution are scaled to it
+     */
+    public CompositionFile(int resolution) {
+        this.resolution = resolution;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Saving                                  *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Saves the notes of a store, replacing the file if it already exists.
+     * Notes dragged off the sheet have no valid pitch and are left out.
+     *
+     * @param store the notes to save
+     * @param path  the file to save to
+     * @throws IOException if the file cannot be written
+     */
+    public void save(NoteStore store, Path path) throws IOException {
+        long[][] notesByTrack = sortByTrack(store);
+        int numNotes = 0;
+        int numTracks = 0;
+        long size = HEADER_SIZE;
+        int[] startsLengths = new int[NUM_TRACKS];
+        int[] durationsLengths = new int[NUM_TRACKS];
+        for (int track = 0; track < NUM_TRACKS; track++) {
+            long[] notes = notesByTrack[track];
+            if (notes.length == 0) {
+                continue;
+            }
+            long previousStart = 0;
+            for (long note : notes) {
+                int id = (int) note;
+                long start = note >> 32;
+                startsLengths[track] += getVarIntSize(zigzag(start - previousStart));
+                durationsLengths[track] += getVarIntSize(store.getDuration(id));
+                previousStart = start;
+            }
+            numNotes += notes.length;
+            numTracks++;
+            size += TRACK_ENTRY_SIZE + startsLengths[track] + durationsLengths[track]
+                    + 3L * notes.length;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putInt(this.resolution);
+            buffer.putInt(numNotes);
+            buffer.putShort((short) numTracks);
+
+            long offset = HEADER_SIZE + (long) TRACK_ENTRY_SIZE * numTracks;
+            for (int track = 0; track < NUM_TRACKS; track++) {
+                if (notesByTrack[track].length > 0) {
+                    buffer.putShort((short) track);
+                    buffer.putInt(notesByTrack[track].length);
+                    buffer.putLong(offset);
+                    buffer.putInt(startsLengths[track]);
+                    buffer.putInt(durationsLengths[track]);
+                    offset += startsLengths[track] + durationsLengths[track]
+                            + 3L * notesByTrack[track].length;
+                }
+            }
+
+            for (long[] notes : notesByTrack) {
+                long previousStart = 0;
+                for (long note : notes) {
+                    long start = note >> 32;
+                    putVarInt(buffer, zigzag(start - previousStart));
+                    previousStart = start;
+                }
+                for (long note : notes) {
+                    putVarInt(buffer, store.getDuration((int) note));
+                }
+                for (long note : notes) {
+                    int id = (int) note;
+                    buffer.putShort((short) (store.getChannel(id) << 7 | store.getPitch(id)));
+                }
+                for (long note : notes) {
+                    buffer.put((byte) store.getVolume((int) note));
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * Collects the notes of each track in start order.
+     *
+     * @param store the notes to sort
+     * @return for each track, its notes' start ticks packed above their ids
+     */
+    private static long[][] sortByTrack(NoteStore store) {
+        int idLimit = store.getIdLimit();
+        int[] counts = new int[NUM_TRACKS];
+        for (int id = 0; id < idLimit; id++) {
+            if (isSaved(store, id)) {
+                counts[store.getTrackIndex(id)]++;
+            }
+        }
+        long[][] notesByTrack = new long[NUM_TRACKS][];
+        for (int track = 0; track < NUM_TRACKS; track++) {
+            notesByTrack[track] = new long[counts[track]];
+            counts[track] = 0;
+        }
+        for (int id = 0; id < idLimit; id++) {
+            if (isSaved(store, id)) {
+                int track = store.getTrackIndex(id);
+                notesByTrack[track][counts[track]++] =
+                        ((long) store.getStartTick(id) << 32) | id;
+            }
+        }
+        for (long[] notes : notesByTrack) {
+            Arrays.sort(notes);
+        }
+        return notesByTrack;
+    }
+
+    /**
+     * @param store the store holding the note
+     * @param id    the id of a note
+     * @return whether the note can be saved
+     */
+    private static boolean isSaved(NoteStore store, int id) {
+        return store.isLive(id) && store.getPitch(id) >= 0 && store.getPitch(id) < 128
+                && store.getChannel(id) >= 0 && store.getChannel(id) < 16
+                && store.getTrackIndex(id) >= 0 && store.getTrackIndex(id) < NUM_TRACKS;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Loading                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Loads the notes of a file into a store, after any notes already in it.
+     *
+     * @param path  the file to load
+     * @param store the store to add the notes to
+     * @throws IOException if the file cannot be read or is not a
+     *                     composition file
+     */
+    public void load(Path path, NoteStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a composition file");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException(path + " has unsupported version " + version);
+            }
+            int fileResolution = buffer.getInt();
+            if (fileResolution <= 0) {
+                throw new IOException(path + " is corrupt");
+            }
+            buffer.getInt(); // number of notes, the tracks give them again
+            int numTracks = buffer.getShort();
+
+            for (int entry = 0; entry < numTracks; entry++) {
+                buffer.position(HEADER_SIZE + entry * TRACK_ENTRY_SIZE);
+                int track = buffer.getShort();
+                int numNotes = buffer.getInt();
+                long offset = buffer.getLong();
+                int startsLength = buffer.getInt();
+                int durationsLength = buffer.getInt();
+                if (track < 0 || track >= NUM_TRACKS || numNotes < 0
+                        || offset < 0 || offset > buffer.limit()) {
+                    throw new IOException(path + " is corrupt");
+                }
+                loadTrack(buffer, (int) offset, startsLength, durationsLength,
+                        numNotes, track, fileResolution, store);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException e) {
+            throw new IOException(path + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Adds the notes of one track to a store, reading its four columns
+     * side by side.
+     *
+     * @param buffer          the mapped file
+     * @param offset          the position of the track's data
+     * @param startsLength    the byte length of the start column
+     * @param durationsLength the byte length of the duration column
+     * @param numNotes        the number of notes in the track
+     * @param track           the track the notes are in
+     * @param fileResolution  the number of ticks per beat of the file
+     * @param store           the store to add the notes to
+     */
+    private void loadTrack(MappedByteBuffer buffer, int offset, int startsLength,
+                           int durationsLength, int numNotes, int track,
+                           int fileResolution, NoteStore store) {
+        int startsPosition = offset;
+        int durationsPosition = offset + startsLength;
+        int pitchesPosition = durationsPosition + durationsLength;
+        int volumesPosition = pitchesPosition + 2 * numNotes;
+        long start = 0;
+        for (int i = 0; i < numNotes; i++) {
+            buffer.position(startsPosition);
+            start += unzigzag(getVarInt(buffer));
+            startsPosition = buffer.position();
+            buffer.position(durationsPosition);
+            long duration = getVarInt(buffer);
+            durationsPosition = buffer.position();
+            int channelAndPitch = buffer.getShort(pitchesPosition + 2 * i);
+            int volume = buffer.get(volumesPosition + i) & 0x7F;
+            store.add(channelAndPitch & 0x7F, scale(start, fileResolution),
+                    scale(duration, fileResolution), (channelAndPitch >> 7) & 0x0F,
+                    track, volume);
+        }
+    }
+
+    /**
+     * Converts ticks of the file to ticks of the composition.
+     *
+     * @param ticks          a number of ticks in the file
+     * @param fileResolution the number of ticks per beat of the file
+     * @return the same time in ticks of the composition
+     */
+    private int scale(long ticks, int fileResolution) {
+        if (fileResolution == this.resolution) {
+            return (int) ticks;
+        }
+        return (int) (ticks * this.resolution / fileResolution);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                           Variable integers                            *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Maps a signed value to an unsigned one so small negative values
+     * stay small: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+     *
+     * @param value a signed value
+     * @return the zigzag encoded value
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * @param value a zigzag encoded value
+     * @return the signed value
+     */
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @param value a value that is not negative
+     * @return the number of bytes putVarInt writes for it
+     */
+    private static int getVarIntSize(long value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a value seven bits per byte, lowest bits first, with the high
+     * bit set on every byte but the last.
+     *
+     * @param buffer the buffer to write to
+     * @param value  a value that is not negative
+     */
+    static void putVarInt(ByteBuffer buffer, long value) {
+        while (value >= 0x80) {
+            buffer.put((byte) (0x80 | (value & 0x7F)));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a value written by putVarInt.
+     *
+     * @param buffer the buffer to read from
+     * @return the value
+     * @throws IllegalArgumentException if the value is too long
+     */
+    static long getVarInt(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Variable integer too long");
+    }
+}
@@ -8,17 +8,29 @@
 
 package proj4ChanceLinRemondiSolis;
 
-import javafx.geometry.Bounds;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
-import javafx.scene.shape.Line;
 import javafx.scene.shape.Rectangle;
 
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.ShortMessage;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * This class models a composition sheet manager.
@@ -38,11 +50,94 @@ public class CompositionManager {
      *                                                                        *
      **************************************************************************/
 
+    /**
+     * The number of ticks per beat
+     */
+    public static final int RESOLUTION = 100;
+
+    /**
+     * The number of beats per minute
+     */
+    public static final int BEATS_PER_MINUTE = 60;
+
+    /**
+     * The most bytes of undo history to keep in memory before the oldest
+     * edits are spilled to disk
+     */
+    private static final long HISTORY_MEMORY_LIMIT = 8 << 20;
+
+    /**
+     * The most edits that can be undone
+     */
+    private static final int HISTORY_EDIT_LIMIT = 1000;
+
+    /**
+     * Edits of more notes than this refill the sequence in one batch
+     * rather than updating each note's events
+     */
+    private static final int BULK_EDIT_SIZE = 1000;
+
     /**
      * Midi Sound Player
      */
     private MidiPlayer midiPlayer;
 
+    /**
+     * Keeps the midiPlayer's sequence in step with the notes
+     */
+    private LiveSong liveSong;
+
+    /**
+     * Plays the composition by streaming its notes, when streaming
+     * playback is on
+     */
+    private NoteStreamer noteStreamer;
+
+    /**
+     * Indicates if the composition is streamed rather than played from
+     * the midiPlayer's sequence
+     */
+    private boolean isStreamingPlayback;
+
+    /**
+     * The number of times playing has been asked for or stopped, so a
+     * request still waiting for the song to be built can tell it has
+     * been superseded
+     */
+    private int playRequestCount;
+
+    /**
+     * The tick of the last click on the sheet, where Play From Cursor
+     * starts
+     */
+    private int cursorTick;
+
+    /**
+     * Plays notes as they are placed, moved and resized
+     */
+    private NotePreview notePreview;
+
+    /**
+     * The note the drag started on, heard while it is moved or resized
+     */
+    private MusicalNote draggedNote;
+
+    /**
+     * The pitch last heard while moving the dragged note
+     */
+    private int draggedPitch;
+
+    /**
+     * Records every edit so it can be recovered, null if edits are not
+     * being recorded
+     */
+    private EditJournal editJournal;
+
+    /**
+     * Keeps the edits that can be undone and redone
+     */
+    private EditHistory editHistory;
+
     /**
      * Graphic presentation of progress
      */
@@ -54,14 +149,26 @@ public class CompositionManager {
     private Pane composition;
 
     /**
-     * Holds an array of the notes in the composition
+     * Holds the data of the notes in the composition
+     */
+    private NoteStore noteStore;
+
+    /**
+     * The MusicalNote of each note id, made the first time it is needed
      */
-    private ArrayList<MusicalNote> notes;
+    private MusicalNote[] noteViews;
 
     /**
-     * Holds an array of the selected notes in the composition
+     * Holds the selected notes in the composition. A note has only one
+     * MusicalNote, so the set compares them by identity, which is the
+     * same as by id.
      */
-    private ArrayList<MusicalNote> selectedNotes;
+    private Set<MusicalNote> selectedNotes;
+
+    /**
+     * Spatial index used to find notes by location
+     */
+    private NoteIndex noteIndex;
 
     /**
      * Reference to the instrument color associated with the instrument
@@ -73,6 +180,32 @@ public class CompositionManager {
      */
     private Hashtable<Paint, Integer> channelMapping;
 
+    /**
+     * Holds the color of each channel's notes
+     */
+    private Paint[] channelColors;
+
+    /**
+     * The scroll pane showing the composition pane
+     */
+    private ScrollPane scrollPane;
+
+    /**
+     * Shows the visible part of the composition as nodes
+     */
+    private NoteViewport noteViewport;
+
+    /**
+     * Draws the composition when canvas rendering is on, null otherwise
+     */
+    private PianoRollCanvas pianoRoll;
+
+    /**
+     * How far the selected notes have been dragged and widened since
+     * the drag started
+     */
+    private double dragOffsetX, dragOffsetY, dragOffsetWidth;
+
     /**
      * Indicates if the notes are moving
      */
@@ -93,6 +226,21 @@ public class CompositionManager {
      */
     private Rectangle dragBox;
 
+    /**
+     * The corner of the dragging box where the drag started
+     */
+    private double dragBoxAnchorX, dragBoxAnchorY;
+
+    /**
+     * The corner of the dragging box that follows the mouse
+     */
+    private double dragBoxCornerX, dragBoxCornerY;
+
+    /**
+     * Indicates if the dragging box has been moved since it was created
+     */
+    private boolean isDragBoxMoved;
+
 
 
 
@@ -107,33 +255,33 @@ public class CompositionManager {
     /**
      * Constructor
      *
+     * @param scrollPane scroll pane showing the composition sheet, or null
+     *                   to show all of it
      * @param composition pane to act like composition sheet
      * @param line graphic representation of progress
      */
-    public CompositionManager(Pane composition, TempoLine line) {
-        this.midiPlayer = new MidiPlayer(100, 60);
+    public CompositionManager(ScrollPane scrollPane, Pane composition, TempoLine line) {
+        this.midiPlayer = new MidiPlayer(RESOLUTION, BEATS_PER_MINUTE);
+        this.scrollPane = scrollPane;
         this.composition = composition;
-        this.notes = new ArrayList<>();
-        this.selectedNotes = new ArrayList<>();
+        this.noteStore = new NoteStore();
+        this.noteViews = new MusicalNote[0];
+        this.selectedNotes = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.noteIndex = new NoteIndex(this.noteStore, this::getNote);
+        this.liveSong = new LiveSong(this.midiPlayer, this.noteStore, Platform::runLater);
+        this.noteStreamer = new NoteStreamer(this.midiPlayer, this.noteStore,
+                this.noteIndex, Platform::runLater, RESOLUTION, BEATS_PER_MINUTE);
+        this.notePreview = new NotePreview(this.midiPlayer);
+        this.editHistory = new EditHistory(HISTORY_MEMORY_LIMIT, HISTORY_EDIT_LIMIT);
+        addProgramChanges(this.midiPlayer);
         this.channelMapping = new Hashtable<>();
+        this.channelColors = new Paint[Instruments.NUM_CHANNELS];
         setChannelMapping();
-        createCompositionSheet();
+        this.noteViewport = new NoteViewport(scrollPane, composition,
+                this.noteIndex, this.channelColors);
         this.tempoLine = line;
     }
 
-    /**
-     * Creates a visual representation of a composition panel
-     * similar to a staff lined workbook
-     */
-    public void createCompositionSheet() {
-        Line staffLine;
-        for (int i = 0; i < 127; i++) {
-            staffLine = new Line(0, i * 10, 2000, i * 10);
-            staffLine.getStyleClass().add("staffLine");
-            this.composition.getChildren().add(staffLine);
-        }
-    }
-
 
     /**
      * Creates a visual representation of the the notes
@@ -145,15 +293,20 @@ public class CompositionManager {
      */
     public Optional<MusicalNote> addNoteToComposition(double xPos, double yPos) {
         if (yPos >= 0 && yPos < 1280) {
-            Rectangle noteBox = new Rectangle(100.0, 10.0);
             if (!getNoteExistsAtCoordinates(xPos, yPos)) {
-                noteBox.getStyleClass().add("note");
-                noteBox.setX(xPos);
-                noteBox.setY(yPos - (yPos % 10));
-                noteBox.setFill(this.instrumentColor);
-                this.composition.getChildren().add(noteBox);
-                MusicalNote note = new MusicalNote(noteBox, getChannelNumber(noteBox.getFill()));
-                this.notes.add(note);
+                MusicalNote note = new MusicalNote(this.noteStore, 127 - (int) yPos / 10,
+                        (int) xPos, 100, getChannelNumber(this.instrumentColor));
+                setNote(note);
+                this.noteIndex.add(note);
+                this.noteViewport.noteAdded(note);
+                this.liveSong.addNote(note.getId());
+                if (this.editJournal != null) {
+                    this.editJournal.noteAdded(note);
+                    snapshotJournalIfDue();
+                }
+                int[] ids = {note.getId()};
+                this.editHistory.recordAdd(ids, EditHistory.getNoteData(this.noteStore, ids));
+                previewNote(note, note.getPitch());
                 selectNote(note);
                 return Optional.of(note);
             }
@@ -161,12 +314,35 @@ public class CompositionManager {
         return Optional.empty();
     }
 
+    /**
+     * Lets the user hear a note straight away, for as long as it lasts
+     *
+     * @param note  the note to hear
+     * @param pitch the pitch to play it at
+     */
+    private void previewNote(MusicalNote note, int pitch) {
+        this.notePreview.play(pitch, note.getVolume(), note.getChannel(),
+                note.getDuration() * 60000L / (BEATS_PER_MINUTE * RESOLUTION));
+    }
+
+    /**
+     * Asks for a note to be redrawn, when drawing on a canvas
+     *
+     * @param note the note that changed
+     */
+    private void redraw(MusicalNote note) {
+        if (this.pianoRoll != null) {
+            this.pianoRoll.invalidate(note);
+        }
+    }
+
     /**
      * Clears the list of selected notes
      */
     public void clearSelectedNotes() {
         for (MusicalNote note : this.selectedNotes) {
             note.setSelected(false);
+            redraw(note);
         }
         this.selectedNotes.clear();
     }
@@ -175,11 +351,233 @@ public class CompositionManager {
      * Deletes all the selected notes from the composition pane
      */
     public void deleteNotes() {
-        for (MusicalNote note : this.selectedNotes) {
-            this.composition.getChildren().remove(note.getNoteBox());
-            this.notes.remove(note);
+        if (this.selectedNotes.isEmpty()) {
+            return;
         }
+        int[] ids = getIds(this.selectedNotes);
+        this.editHistory.recordDelete(ids, EditHistory.getNoteData(this.noteStore, ids));
+        prepareSongForEdit(ids.length);
         this.selectedNotes.clear();
+        removeNotes(ids);
+        snapshotJournalIfDue();
+    }
+
+    /**
+     * Takes a note out of the composition.
+     *
+     * @param note the note to remove
+     */
+    private void removeNote(MusicalNote note) {
+        this.noteViewport.noteRemoved(note);
+        redraw(note);
+        this.noteViews[note.getId()] = null;
+        this.noteIndex.remove(note);
+        this.liveSong.removeNote(note.getId());
+        if (this.editJournal != null) {
+            this.editJournal.noteRemoved(note);
+        }
+        this.noteStore.remove(note.getId());
+    }
+
+    /**
+     * Takes notes out of the composition. An edit of more than
+     * BULK_EDIT_SIZE notes takes them out of the index and the shown
+     * notes in a single pass each, rather than searching for each note.
+     *
+     * @param ids the ids of the notes to remove
+     */
+    private void removeNotes(int[] ids) {
+        if (ids.length <= BULK_EDIT_SIZE) {
+            for (int id : ids) {
+                removeNote(getNote(id));
+            }
+            return;
+        }
+        BitSet removedIds = new BitSet(this.noteStore.getIdLimit());
+        ArrayList<MusicalNote> removedNotes = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            removedIds.set(id);
+            removedNotes.add(getNote(id));
+        }
+        this.noteViewport.notesRemoved(removedNotes);
+        this.noteIndex.removeAll(removedIds);
+        for (MusicalNote note : removedNotes) {
+            this.noteViews[note.getId()] = null;
+            this.liveSong.removeNote(note.getId());
+            if (this.editJournal != null) {
+                this.editJournal.noteRemoved(note);
+            }
+            this.noteStore.remove(note.getId());
+        }
+        if (this.pianoRoll != null) {
+            this.pianoRoll.invalidateAll();
+        }
+    }
+
+    /**
+     * Puts a note that was removed back in the composition, with the id
+     * it had.
+     *
+     * @param id    the id the note had
+     * @param notes the data of notes, as recorded in the history
+     * @param i     the position of the note in the data
+     * @return the note
+     */
+    private MusicalNote restoreNote(int id, int[] notes, int i) {
+        int offset = i * EditHistory.NOTE_SIZE;
+        this.noteStore.addAt(id, notes[offset], notes[offset + 1], notes[offset + 2],
+                notes[offset + 3], notes[offset + 4], notes[offset + 5]);
+        MusicalNote note = getNote(id);
+        this.noteIndex.add(note);
+        this.noteViewport.noteAdded(note);
+        this.liveSong.addNote(id);
+        if (this.editJournal != null) {
+            this.editJournal.noteAdded(note);
+        }
+        return note;
+    }
+
+    /**
+     * Brings everything that follows a note up to date after the note
+     * has been moved or resized.
+     *
+     * @param note the note that changed
+     */
+    private void noteChanged(MusicalNote note) {
+        this.noteIndex.update(note);
+        this.noteViewport.noteChanged(note);
+        this.liveSong.updateNote(note.getId());
+        if (this.editJournal != null) {
+            this.editJournal.noteChanged(note);
+        }
+    }
+
+    /**
+     * Empties the sequence before an edit of many notes, so the edit does
+     * not have to find and replace each note's events in it. The
+     * sequence is filled again in one batch the next time it is played.
+     *
+     * @param numNotes the number of notes about to be edited
+     */
+    private void prepareSongForEdit(int numNotes) {
+        if (numNotes <= BULK_EDIT_SIZE) {
+            return;
+        }
+        if (this.midiPlayer.getIsPlaying()) {
+            stop();
+        }
+        this.midiPlayer.clear();
+        addProgramChanges(this.midiPlayer);
+        this.liveSong.reset();
+    }
+
+    /**
+     * Gets the ids of some notes.
+     *
+     * @param notes the notes
+     * @return the id of each note, in the same order
+     */
+    private static int[] getIds(Collection<MusicalNote> notes) {
+        int[] ids = new int[notes.size()];
+        int i = 0;
+        for (MusicalNote note : notes) {
+            ids[i++] = note.getId();
+        }
+        return ids;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                            Undo and redo                               *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Undoes the last edit that has not been undone and selects the notes
+     * it brings back or changes.
+     */
+    public void undo() {
+        EditHistory.Edit edit = this.editHistory.undo();
+        if (edit != null) {
+            applyEdit(edit, true);
+        }
+    }
+
+    /**
+     * Makes the last edit undone again and selects the notes it adds or
+     * changes.
+     */
+    public void redo() {
+        EditHistory.Edit edit = this.editHistory.redo();
+        if (edit != null) {
+            applyEdit(edit, false);
+        }
+    }
+
+    /**
+     * Makes or reverses an edit from the history. The time taken depends
+     * only on the number of notes the edit changed.
+     *
+     * @param edit     the edit
+     * @param isUndone whether to reverse the edit rather than make it
+     */
+    private void applyEdit(EditHistory.Edit edit, boolean isUndone) {
+        clearSelectedNotes();
+        int[] ids = edit.getIds();
+        int[] values = edit.getValues();
+        prepareSongForEdit(ids.length);
+        int direction = isUndone ? -1 : 1;
+        ArrayList<MusicalNote> editedNotes = new ArrayList<>(ids.length);
+        switch (edit.getType()) {
+            case EditHistory.Edit.MOVE:
+                for (int id : ids) {
+                    MusicalNote note = getNote(id);
+                    note.moveBy(direction * edit.getDTicks(),
+                            -direction * edit.getDPitch() * 10);
+                    noteChanged(note);
+                    editedNotes.add(note);
+                }
+                break;
+            case EditHistory.Edit.RESIZE:
+                for (int id : ids) {
+                    MusicalNote note = getNote(id);
+                    if (isUndone) {
+                        note.setDuration(note.getDuration() - edit.getDTicks());
+                    } else {
+                        note.resizeRight(edit.getDTicks());
+                    }
+                    editedNotes.add(note);
+                }
+                // notes held back by the minimum width go back to where
+                // they were instead
+                for (int i = 0; isUndone && i < values.length; i += 2) {
+                    getNote(values[i]).setDuration(values[i + 1]);
+                }
+                for (MusicalNote note : editedNotes) {
+                    noteChanged(note);
+                }
+                break;
+            default:
+                boolean isAdding = (edit.getType() == EditHistory.Edit.ADD) != isUndone;
+                if (!isAdding) {
+                    removeNotes(ids);
+                    break;
+                }
+                // the notes were removed in order, so bring them back in
+                // reverse, the order the store looks for freed ids in
+                for (int i = ids.length - 1; i >= 0; i--) {
+                    editedNotes.add(restoreNote(ids[i], values, i));
+                }
+        }
+        for (MusicalNote note : editedNotes) {
+            note.setSelected(true);
+            this.selectedNotes.add(note);
+        }
+        if (this.pianoRoll != null) {
+            this.pianoRoll.invalidateAll();
+        }
+        snapshotJournalIfDue();
     }
 
 
@@ -198,23 +596,62 @@ public class CompositionManager {
      * @return true or false in composition
      */
     public boolean getNoteExistsAtCoordinates(double xPos, double yPos) {
-        if (!this.notes.isEmpty()) {
-            for (MusicalNote note : this.notes) {
-                if (note.getIsInBounds(xPos, yPos)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return this.noteIndex.getNoteAt(xPos, yPos).isPresent();
     }
 
     /**
-     * Gets the list of notes.
+     * Gets the store holding the data of the notes.
+     *
+     * @return NoteStore of the composition
+     */
+    public NoteStore getNoteStore() {
+        return this.noteStore;
+    }
+
+    /**
+     * Gets the list of notes. A MusicalNote is made for every note that
+     * does not have one yet.
      *
      * @return ArrayList of MusicalNotes
      */
     public ArrayList<MusicalNote> getNotes() {
-        return this.notes;
+        ArrayList<MusicalNote> notes = new ArrayList<>(this.noteStore.size());
+        int idLimit = this.noteStore.getIdLimit();
+        for (int id = 0; id < idLimit; id++) {
+            if (this.noteStore.isLive(id)) {
+                notes.add(getNote(id));
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * Gets the MusicalNote of a note in the store, making it the first
+     * time it is asked for.
+     *
+     * @param id the id of the note
+     * @return the note's MusicalNote
+     */
+    private MusicalNote getNote(int id) {
+        if (id >= this.noteViews.length || this.noteViews[id] == null) {
+            MusicalNote note = new MusicalNote(this.noteStore, id, null);
+            note.setSelected(false);
+            setNote(note);
+        }
+        return this.noteViews[id];
+    }
+
+    /**
+     * Remembers the MusicalNote of a note id.
+     *
+     * @param note the note
+     */
+    private void setNote(MusicalNote note) {
+        if (note.getId() >= this.noteViews.length) {
+            this.noteViews = Arrays.copyOf(this.noteViews,
+                    Math.max(note.getId() + 1, this.noteViews.length * 2));
+        }
+        this.noteViews[note.getId()] = note;
     }
 
     /**
@@ -225,12 +662,10 @@ public class CompositionManager {
      * @param y MouseEvent y coordinate
      */
     public Optional<MusicalNote> getNoteAtMouseClick(double x, double y) {
-        for (MusicalNote note : this.notes) {
-            if (note.getIsInBounds(x, y)) {
-                return Optional.of(note);
-            }
-        }
-        return Optional.empty();
+        PerformanceMetrics.Measurement hitTest = PerformanceMetrics.startHitTest();
+        Optional<MusicalNote> note = this.noteIndex.getNoteAt(x, y);
+        PerformanceMetrics.hitTested(hitTest, note.isPresent());
+        return note;
     }
 
     /**************************************************************************
@@ -250,42 +685,48 @@ public class CompositionManager {
         this.dragBox = new Rectangle(0, 0);
         this.dragBox.setX(x);
         this.dragBox.setY(y);
+        this.dragBoxAnchorX = this.dragBoxCornerX = x;
+        this.dragBoxAnchorY = this.dragBoxCornerY = y;
+        this.isDragBoxMoved = false;
         this.dragBox.getStyleClass().add("dragBox");
         this.composition.getChildren().add(this.dragBox);
     }
 
     /**
-     * Sets the given note to selected and adds it to the selectedNotes list.
+     * Sets the given note to selected and adds it to the selected notes.
      *
      * @param note A MusicalNote to be selected
      */
     public void selectNote(MusicalNote note) {
         note.setSelected(true);
-        if (!selectedNotes.contains(note)) {
-            selectedNotes.add(note);
-        }
+        redraw(note);
+        this.selectedNotes.add(note);
     }
 
     /**
-     * Selects all of the notes and adds them to the selected arraylist.
+     * Selects all of the notes and adds them to the selected notes.
      */
     public void selectAllNotes() {
         this.clearSelectedNotes();
         ArrayList<MusicalNote> notes = this.getNotes();
         for (MusicalNote note : notes) {
             note.setSelected(true);
-            this.selectedNotes.add(note);
+        }
+        this.selectedNotes.addAll(notes);
+        if (this.pianoRoll != null) {
+            this.pianoRoll.invalidateAll();
         }
     }
 
     /**
-     * Sets the given note to unselected and removes it from the selectedNotes list.
+     * Sets the given note to unselected and removes it from the selected notes.
      *
      * @param note
      */
     public void unselectNote(MusicalNote note) {
         note.setSelected(false);
-        selectedNotes.remove(note);
+        redraw(note);
+        this.selectedNotes.remove(note);
     }
 
 
@@ -296,9 +737,17 @@ public class CompositionManager {
      * @param dy the change in the mouse's y coordinate
      */
     public void moveSelectedNotes(double dx, double dy) {
-        for (MusicalNote note : selectedNotes) {
-            Rectangle noteBox = note.getNoteBox();
-            note.setPosition(noteBox.getX() + dx, noteBox.getY() + dy);
+        this.dragOffsetX += dx;
+        this.dragOffsetY += dy;
+        showDraggedNotes();
+        if (this.draggedNote != null) {
+            // the pitch the note will be dropped at, see MusicalNote.moveBy
+            int pitch = this.draggedNote.getPitch()
+                    - (int) Math.round(this.dragOffsetY / 10);
+            if (pitch != this.draggedPitch) {
+                this.draggedPitch = pitch;
+                previewNote(this.draggedNote, pitch);
+            }
         }
     }
 
@@ -307,8 +756,48 @@ public class CompositionManager {
      * the nearest horizontal bar.
      */
     public void releaseMovedNotes() {
+        this.noteViewport.stopMovingNotes();
+        int[] ids = getIds(this.selectedNotes);
+        // see MusicalNote.resizeRight and moveBy
+        int dDuration = (int) Math.round(this.dragOffsetWidth);
+        int dTicks = (int) Math.round(this.dragOffsetX);
+        int dPitch = -(int) Math.round(this.dragOffsetY / 10);
+        int[] resizeExceptions = new int[0];
+        int numResizeExceptions = 0;
+        boolean isResized = false;
+        if (dDuration != 0 || dTicks != 0 || dPitch != 0) {
+            prepareSongForEdit(ids.length);
+        }
         for (MusicalNote note : selectedNotes) {
-            note.roundToNearestYLocation();
+            if (dDuration != 0) {
+                int oldDuration = note.getDuration();
+                note.resizeRight(dDuration);
+                isResized |= note.getDuration() != oldDuration;
+                if (note.getDuration() != oldDuration + dDuration) {
+                    if (numResizeExceptions == resizeExceptions.length) {
+                        resizeExceptions = Arrays.copyOf(resizeExceptions,
+                                Math.max(8, numResizeExceptions * 2));
+                    }
+                    resizeExceptions[numResizeExceptions++] = note.getId();
+                    resizeExceptions[numResizeExceptions++] = oldDuration;
+                }
+            }
+            if (dTicks != 0 || dPitch != 0) {
+                note.moveBy(this.dragOffsetX, this.dragOffsetY);
+            }
+            noteChanged(note);
+        }
+        if (isResized) {
+            this.editHistory.recordResize(ids, dDuration,
+                    Arrays.copyOf(resizeExceptions, numResizeExceptions));
+        }
+        if ((dTicks != 0 || dPitch != 0) && ids.length > 0) {
+            this.editHistory.recordMove(ids, dTicks, dPitch);
+        }
+        snapshotJournalIfDue();
+        this.dragOffsetX = this.dragOffsetY = this.dragOffsetWidth = 0;
+        if (this.pianoRoll != null) {
+            this.pianoRoll.setDraggedNotes(null, 0, 0, 0);
         }
     }
 
@@ -318,8 +807,29 @@ public class CompositionManager {
      * @param dx the change in the mouse's x coordinate
      */
     public void resizeSelectedNotes(double dx) {
+        this.dragOffsetWidth += dx;
+        showDraggedNotes();
+    }
+
+    /**
+     * Shows the selected notes where they have been dragged to. The notes
+     * themselves are only changed when they are released. Moved notes are
+     * shown by translating them as a group, resized notes by widening
+     * each of their rectangles.
+     */
+    private void showDraggedNotes() {
+        if (this.pianoRoll != null) {
+            this.pianoRoll.setDraggedNotes(this.selectedNotes, this.dragOffsetX,
+                    this.dragOffsetY, this.dragOffsetWidth);
+            return;
+        }
+        if (this.isMovingNotes) {
+            this.noteViewport.startMovingNotes(this.selectedNotes);
+            this.noteViewport.showMovedNotes(this.dragOffsetX, this.dragOffsetY);
+            return;
+        }
         for (MusicalNote note : selectedNotes) {
-            note.resizeRight(dx);
+            note.showDragOffset(this.dragOffsetX, this.dragOffsetY, this.dragOffsetWidth);
         }
     }
 
@@ -341,25 +851,68 @@ public class CompositionManager {
      * @param controlDown if control-down
      */
     public void handleDragMoved(double dx, double dy, boolean controlDown) {
+        PerformanceMetrics.Measurement dragFrame = PerformanceMetrics.startDragFrame();
         if (isMovingNotes) {
             moveSelectedNotes(dx, dy);
         } else if (isResizing) {
             resizeSelectedNotes(dx);
         } else {
-            if (!controlDown) {
+            if (!controlDown && !this.isDragBoxMoved) {
                 clearSelectedNotes();
             }
-            this.dragBox.setWidth(this.dragBox.getWidth() + dx);
-            this.dragBox.setHeight(this.dragBox.getHeight() + dy);
-            Bounds bounds = this.dragBox.getBoundsInParent();
-            for (MusicalNote note : notes) {
-                if (note.getIsInRectangleBounds(bounds.getMinX(), bounds.getMinY(),
-                        bounds.getMaxX(), bounds.getMaxY())) {
-                    note.setSelected(true);
-                    if (!selectedNotes.contains(note)) {
-                        selectedNotes.add(note);
-                    }
+            this.isDragBoxMoved = true;
+            moveDragBox(dx, dy, controlDown);
+        }
+        PerformanceMetrics.dragFrameHandled(dragFrame, this.selectedNotes.size());
+    }
+
+    /**
+     * Moves the free corner of the dragging box and updates the selection.
+     *
+     * Only the notes lying where the old and the new box differ can
+     * change state, so just those are looked up in the index and
+     * selected or unselected.
+     *
+     * @param dx the change in the mouse's x coordinate
+     * @param dy the change in the mouse's y coordinate
+     * @param controlDown if control-down, notes leaving the box stay selected
+     */
+    private void moveDragBox(double dx, double dy, boolean controlDown) {
+        double oldCornerX = this.dragBoxCornerX;
+        double oldCornerY = this.dragBoxCornerY;
+        this.dragBoxCornerX += dx;
+        this.dragBoxCornerY += dy;
+
+        double minX = Math.min(this.dragBoxAnchorX, this.dragBoxCornerX);
+        double minY = Math.min(this.dragBoxAnchorY, this.dragBoxCornerY);
+        double maxX = Math.max(this.dragBoxAnchorX, this.dragBoxCornerX);
+        double maxY = Math.max(this.dragBoxAnchorY, this.dragBoxCornerY);
+        this.dragBox.setX(minX);
+        this.dragBox.setY(minY);
+        this.dragBox.setWidth(maxX - minX);
+        this.dragBox.setHeight(maxY - minY);
+
+        // the area swept by the box lies in a vertical strip between the
+        // old and new corner x, and a horizontal strip between the old
+        // and new corner y
+        double left = Math.min(minX, oldCornerX);
+        double right = Math.max(maxX, oldCornerX);
+        double top = Math.min(minY, oldCornerY);
+        double bottom = Math.max(maxY, oldCornerY);
+        ArrayList<MusicalNote> sweptNotes = this.noteIndex.getNotesInArea(
+                Math.min(oldCornerX, this.dragBoxCornerX), top,
+                Math.max(oldCornerX, this.dragBoxCornerX), bottom);
+        sweptNotes.addAll(this.noteIndex.getNotesInArea(
+                left, Math.min(oldCornerY, this.dragBoxCornerY),
+                right, Math.max(oldCornerY, this.dragBoxCornerY)));
+
+        for (MusicalNote note : sweptNotes) {
+            if (note.getIsInRectangleBounds(minX, minY, maxX, maxY)) {
+                if (!note.isSelected()) {
+                    selectNote(note);
                 }
+            } else if (!controlDown && note.isSelected()) {
+                unselectNote(note);
             }
         }
     }
@@ -372,7 +925,13 @@ public class CompositionManager {
      * corresponding pieces back to their resting state.
      */
     public void handleDragEnded() {
-        releaseMovedNotes();
+        if (isMovingNotes || isResizing) {
+            releaseMovedNotes();
+        }
+        if (isResizing && this.draggedNote != null) {
+            previewNote(this.draggedNote, this.draggedNote.getPitch());
+        }
+        this.draggedNote = null;
         isResizing = false;
         isMovingNotes = false;
         composition.getChildren().remove(this.dragBox);
@@ -387,8 +946,9 @@ public class CompositionManager {
      * @param y the y location of the mouse click on the pane
      */
     public void handleClickAt(double x, double y) {
-        if (midiPlayer.getIsPlaying()) {
-            stop();
+        this.cursorTick = Math.max(0, (int) x);
+        if (getIsPlaying()) {
+            seek(this.cursorTick);
             return;
         }
 
@@ -454,6 +1014,8 @@ public class CompositionManager {
         // if the click is on a note
         if (optionalNote.isPresent()) {
             MusicalNote note = optionalNote.get();
+            this.draggedNote = note;
+            this.draggedPitch = note.getPitch();
             boolean onNoteEdge = false;
             // if it is on the edge of a note
             if (note.getIsOnEdge(x, y)) {
@@ -499,6 +1061,31 @@ public class CompositionManager {
         this.channelMapping.put(Color.DEEPSKYBLUE, 5);
         this.channelMapping.put(Color.BLACK, 6);
         this.channelMapping.put(Color.BROWN, 7);
+        for (Paint color : this.channelMapping.keySet()) {
+            this.channelColors[this.channelMapping.get(color)] = color;
+        }
+    }
+
+    /**
+     * Switches between drawing the composition on a canvas and showing
+     * every note and staff line as a node in the composition pane.
+     *
+     * @param enabled whether to draw on a canvas
+     */
+    public void setCanvasRendering(boolean enabled) {
+        if (enabled == (this.pianoRoll != null)) {
+            return;
+        }
+        if (enabled) {
+            this.noteViewport.setShowingNodes(false);
+            this.pianoRoll = new PianoRollCanvas(this.scrollPane, this.composition,
+                    this.noteIndex, this.channelColors);
+            this.pianoRoll.show();
+        } else {
+            this.pianoRoll.hide();
+            this.pianoRoll = null;
+            this.noteViewport.setShowingNodes(true);
+        }
     }
 
     /**
@@ -507,14 +1094,10 @@ public class CompositionManager {
      * @param midiPlayer MIDI sounds player
      */
     public void addProgramChanges(MidiPlayer midiPlayer) {
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE, 0, 0, 0, 0);
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + 1, 6, 0, 0, 0);
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + 2, 12, 0, 0, 0);
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + 3, 19, 0, 0, 0);
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + 4, 21, 0, 0, 0);
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + 5, 25, 0, 0, 0);
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + 6, 40, 0, 0, 0);
-        midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + 7, 60, 0, 0, 0);
+        for (int channel = 0; channel < Instruments.NUM_CHANNELS; channel++) {
+            midiPlayer.addMidiEvent(ShortMessage.PROGRAM_CHANGE + channel,
+                    Instruments.getProgram(channel), 0, 0, 0);
+        }
     }
 
 
@@ -525,6 +1108,18 @@ public class CompositionManager {
      */
     public void changeInstrument(Paint newInstrumentColor) {
         this.instrumentColor = newInstrumentColor;
+        if (this.editJournal != null) {
+            this.editJournal.instrumentChanged(getChannelNumber(newInstrumentColor));
+        }
+    }
+
+    /**
+     * Gets the color associated with the current instrument
+     *
+     * @return the color of the instrument new notes are given
+     */
+    public Paint getInstrumentColor() {
+        return this.instrumentColor;
     }
 
     /**
@@ -539,57 +1134,358 @@ public class CompositionManager {
     }
 
     /**
-     * Adds the note to the sound player
+     * Calculates the stop time for the composition created
+     *
+     * @return stopTime
+     */
+    public double calculateStopTime() {
+        return this.noteStore.getStopTick();
+    }
+
+    /**
+     * Saves the composition to a composition file.
      *
-     * @param midiPlayer MIDI sound player
+     * @param file the file to save to
+     * @throws IOException if the file cannot be written
      */
-    public void buildSong(MidiPlayer midiPlayer) {
-        addProgramChanges(midiPlayer);
-        double stopTime = 0.0;
-        for (MusicalNote note : this.notes) {
-            midiPlayer.addNote(
-                    note.getPitch(),            //pitch
-                    note.getVolume(),          //volume
-                    note.getStartTick(),      //startTick
-                    note.getDuration(),      //duration
-                    note.getChannel(),      //channel
-                    note.getTrackIndex()   //trackIndex
-            );
+    public void saveComposition(File file) throws IOException {
+        new CompositionFile(RESOLUTION).save(this.noteStore, file.toPath());
+    }
+
+    /**
+     * Replaces the composition with the one saved in a composition file.
+     * The notes are read straight into the store; a MusicalNote is only
+     * made for a note once it is shown or selected, and the sequence is
+     * filled the next time the composition is played.
+     *
+     * @param file the file to open
+     * @throws IOException if the file cannot be read, in which case the
+     *                     composition is left as it was
+     */
+    public void openComposition(File file) throws IOException {
+        NoteStore loadedNotes = new NoteStore();
+        new CompositionFile(RESOLUTION).load(file.toPath(), loadedNotes);
+        replaceNotes(loadedNotes);
+        if (this.editJournal != null) {
+            snapshotJournal();
         }
     }
 
     /**
-     * Calculates the stop time for the composition created
+     * Recovers the composition recorded in a journal directory, as it was
+     * after the last edit that reached the disk, and records every edit
+     * made from now on there.
      *
-     * @return stopTime
+     * @param directory the directory holding the journal
+     * @throws IOException if the journal cannot be read or started, or
+     *                     is in use by another copy of the program
      */
-    public double calculateStopTime() {
-        double stopTime = 0.0;
-        for (MusicalNote note : this.notes) {
-            if (stopTime < note.getStartTick() + note.getDuration()) {
-                stopTime = note.getStartTick() + note.getDuration();
+    public void openJournal(File directory) throws IOException {
+        EditJournal journal = new EditJournal(directory.toPath());
+        NoteStore recoveredNotes = new NoteStore();
+        int instrument;
+        try {
+            instrument = journal.recover(recoveredNotes);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        replaceNotes(recoveredNotes);
+        if (instrument >= 0 && instrument < Instruments.NUM_CHANNELS) {
+            this.instrumentColor = this.channelColors[instrument];
+        }
+        this.editJournal = journal;
+        snapshotJournal();
+    }
+
+    /**
+     * Stops recording when the program exits normally. The journal is
+     * deleted, so the composition is not recovered on the next start.
+     */
+    public void closeJournal() {
+        if (this.editJournal != null) {
+            this.editJournal.delete();
+            this.editJournal = null;
+        }
+    }
+
+    /**
+     * Closes the journal and the MIDI devices. The composition cannot
+     * be played afterwards.
+     */
+    public void close() {
+        this.noteStreamer.stop();
+        closeJournal();
+        this.midiPlayer.close();
+    }
+
+    /**
+     * Replaces the journal with a snapshot of the composition.
+     */
+    private void snapshotJournal() {
+        this.editJournal.snapshot(this.noteStore, this.instrumentColor == null ? -1
+                : getChannelNumber(this.instrumentColor));
+    }
+
+    /**
+     * Replaces the journal with a snapshot once it has grown big enough
+     * that replaying it would take longer than reading a snapshot.
+     */
+    private void snapshotJournalIfDue() {
+        if (this.editJournal != null && this.editJournal.isSnapshotDue()) {
+            snapshotJournal();
+        }
+    }
+
+    /**
+     * Replaces the notes of the composition with the notes of another
+     * store, which is left empty. The edit history is cleared.
+     *
+     * @param notes the store holding the new notes
+     */
+    public void replaceNotes(NoteStore notes) {
+        this.midiPlayer.stop();
+        this.selectedNotes.clear();
+        this.noteStore.takeNotesFrom(notes);
+        this.editHistory.clear();
+        this.noteViews = new MusicalNote[0];
+        this.noteIndex.rebuild();
+        this.midiPlayer.clear();
+        addProgramChanges(this.midiPlayer);
+        this.liveSong.reset();
+        this.noteViewport.reset(this.noteStore.getStopTick());
+        if (this.pianoRoll != null) {
+            this.pianoRoll.invalidateAll();
+        }
+    }
+
+    /**
+     * Replaces the composition with the notes of a Standard MIDI File.
+     * The file is parsed off the notes into a store of its own, then
+     * swapped in as a whole.
+     *
+     * @param file the file to import
+     * @throws IOException if the file cannot be read or is not a MIDI file
+     */
+    public void importMidi(File file) throws IOException {
+        NoteStore importedNotes = new NoteStore();
+        new MidiFileReader(RESOLUTION, BEATS_PER_MINUTE).read(file.toPath(), importedNotes);
+        replaceNotes(importedNotes);
+        if (this.editJournal != null) {
+            snapshotJournal();
+        }
+    }
+
+    /**
+     * Writes the composition to a Standard MIDI File.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public void exportMidi(File file) throws IOException {
+        new MidiFileWriter(RESOLUTION, BEATS_PER_MINUTE).write(this.noteStore, file.toPath());
+    }
+
+    /**
+     * Makes a task that renders the composition to a WAV file, faster
+     * than it would play. The notes are copied now, so the task can run
+     * on a background thread while the composition is edited.
+     *
+     * @param file the file to write to
+     * @return the task, which is not started
+     */
+    public Task<Void> exportWav(File file) {
+        NoteStore notes = new NoteStore(this.noteStore);
+        MidiPlayer midiPlayer = this.midiPlayer;
+        return new Task<Void>() {
+            @Override
+            protected Void call() throws IOException, MidiUnavailableException,
+                    InvalidMidiDataException {
+                new WavRenderer().render(midiPlayer.buildSequence(notes), file);
+                return null;
             }
+        };
+    }
+
+    /**
+     * Turns streaming playback on or off. When it is on, the composition
+     * is played by streaming its notes straight to the synthesizer, and
+     * the midiPlayer's sequence is emptied and not kept up to date, so
+     * very long compositions start playing at once and take no memory
+     * for the sequence.
+     *
+     * @param isStreamingPlayback whether to stream the composition
+     */
+    public void setStreamingPlayback(boolean isStreamingPlayback) {
+        if (this.isStreamingPlayback == isStreamingPlayback) {
+            return;
         }
-        return stopTime;
+        stop();
+        this.isStreamingPlayback = isStreamingPlayback;
+        if (isStreamingPlayback) {
+            this.midiPlayer.clear();
+            addProgramChanges(this.midiPlayer);
+            this.liveSong.reset();
+        }
+    }
+
+    /**
+     * Indicates whether the composition is being played
+     *
+     * @return if is playing or not
+     */
+    public boolean getIsPlaying() {
+        return this.midiPlayer.getIsPlaying() || this.noteStreamer.getIsPlaying();
     }
 
     /**
-     * Plays the sequence of notes and animates the TempoLine.
+     * Plays the sequence of notes and animates the TempoLine. If the
+     * sequence has to be built first, it is built in the background and
+     * played once ready, unless playing is stopped or asked for again
+     * meanwhile.
      */
     public void play() {
+        PerformanceMetrics.playRequested();
+        int playRequest = ++this.playRequestCount;
+        this.midiPlayer.stop();
+        this.noteStreamer.stop();
+        double stopTime = this.calculateStopTime();
+        this.tempoLine.updateTempoLine(stopTime);
+        if (this.isStreamingPlayback) {
+            this.noteStreamer.play();
+            this.tempoLine.playAnimation(this.noteStreamer);
+            return;
+        }
+        playWhenPrepared(playRequest);
+    }
+
+    /**
+     * Plays the sequence once it holds every note, if the play request is
+     * still the latest by then. A build thrown away because the notes
+     * were replaced meanwhile is started again from the new notes; a
+     * build that fails stops the request.
+     *
+     * @param playRequest the play request being served
+     */
+    private void playWhenPrepared(int playRequest) {
+        this.liveSong.prepare().thenRun(() -> {
+            if (playRequest == this.playRequestCount) {
+                playMusicAndAnimation();
+            }
+        }).exceptionally(error -> {
+            if (error.getCause() instanceof CancellationException) {
+                // cancelled while the notes are being replaced, so wait
+                // until they have been before building them
+                Platform.runLater(() -> {
+                    if (playRequest == this.playRequestCount) {
+                        this.tempoLine.updateTempoLine(this.calculateStopTime());
+                        playWhenPrepared(playRequest);
+                    }
+                });
+            } else {
+                error.printStackTrace();
+                if (playRequest == this.playRequestCount) {
+                    stop();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Plays the composition from the tick last clicked on.
+     */
+    public void playFromCursor() {
+        playStream(this.cursorTick, 0, Integer.MAX_VALUE, false, null);
+    }
+
+    /**
+     * Plays only the selected notes, from the start of the first to the
+     * end of the last.
+     */
+    public void playSelection() {
+        if (this.selectedNotes.isEmpty()) {
+            return;
+        }
+        BitSet playedNotes = new BitSet();
+        for (MusicalNote note : this.selectedNotes) {
+            playedNotes.set(note.getId());
+        }
+        int[] region = getSelectedRegion();
+        playStream(region[0], region[0], region[1], false, playedNotes);
+    }
+
+    /**
+     * Plays every note in the region the selected notes span, over and
+     * over until stopped.
+     */
+    public void loopSelection() {
+        if (this.selectedNotes.isEmpty()) {
+            return;
+        }
+        int[] region = getSelectedRegion();
+        playStream(region[0], region[0], region[1], true, null);
+    }
+
+    /**
+     * Jumps to another tick while playing. Whatever is playing carries on
+     * from there, streamed, so the notes before the tick are not read.
+     *
+     * @param tick the tick to play from
+     */
+    public void seek(int tick) {
+        if (this.noteStreamer.getIsPlaying()) {
+            this.noteStreamer.seek(tick);
+        } else if (this.midiPlayer.getIsPlaying()) {
+            playStream(tick, 0, Integer.MAX_VALUE, false, null);
+        }
+    }
+
+    /**
+     * Streams part of the composition and animates the TempoLine.
+     *
+     * @param startTick   the tick to start playing at
+     * @param regionStart the first tick of the region played
+     * @param regionEnd   the tick after the region played
+     * @param isLooping   whether the region starts over when it ends
+     * @param playedNotes the ids of the notes to play, or null for all
+     */
+    private void playStream(int startTick, int regionStart, int regionEnd,
+                            boolean isLooping, BitSet playedNotes) {
+        PerformanceMetrics.playRequested();
+        this.playRequestCount++;
         this.midiPlayer.stop();
-        this.midiPlayer.clear();
-        this.buildSong(this.midiPlayer);
         double stopTime = this.calculateStopTime();
         this.tempoLine.updateTempoLine(stopTime);
-        playMusicAndAnimation();
+        this.noteStreamer.play(startTick, regionStart, regionEnd, isLooping, playedNotes);
+        this.tempoLine.playAnimation(this.noteStreamer);
+    }
+
+    /**
+     * Finds the ticks the selected notes span.
+     *
+     * @return the start of the first selected note and the end of the
+     *         last
+     */
+    private int[] getSelectedRegion() {
+        int regionStart = Integer.MAX_VALUE;
+        int regionEnd = 0;
+        for (MusicalNote note : this.selectedNotes) {
+            int id = note.getId();
+            int start = this.noteStore.getStartTick(id);
+            regionStart = Math.min(regionStart, start);
+            regionEnd = Math.max(regionEnd, start + this.noteStore.getDuration(id));
+        }
+        return new int[]{regionStart, regionEnd};
     }
 
     /**
      * Stops the midiPlayer and hides the tempoLine.
      */
     public void stop() {
+        this.playRequestCount++;
         this.midiPlayer.stop();
+        this.noteStreamer.stop();
         this.tempoLine.stopAnimation();
         this.tempoLine.hideTempoLine();
     }
@@ -598,8 +1494,11 @@ public class CompositionManager {
      * starts the reproduction  of the composition
      */
     public void playMusicAndAnimation() {
-        this.tempoLine.playAnimation();
-        this.midiPlayer.play();
+        this.midiPlayer.play().thenRun(() -> Platform.runLater(() -> {
+            if (this.midiPlayer.getIsPlaying()) {
+                this.tempoLine.playAnimation(this.midiPlayer);
+            }
+        }));
     }
 
 
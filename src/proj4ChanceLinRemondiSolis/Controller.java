@@ -8,13 +8,27 @@
 
 package proj4ChanceLinRemondiSolis;
 
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.Label;
 import javafx.scene.control.RadioButton;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Toggle;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
 import javafx.scene.shape.Line;
+import javafx.stage.FileChooser;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * This class handles all user GUI interactions
@@ -29,18 +43,54 @@ public class Controller {
      *                                                                        *
      **************************************************************************/
 
+    /**
+     * The directory the edits are recorded in, to recover them if the
+     * program dies
+     */
+    private static final File JOURNAL_DIRECTORY =
+            new File(System.getProperty("user.home"), ".compositionJournal");
+
+    /**
+     * The file the performance metrics are added to, when they are on
+     */
+    private static final File METRICS_FILE =
+            new File(System.getProperty("user.home"), "compositionMetrics.log");
+
+    /**
+     * The seconds between the performance metrics being added to the file
+     */
+    private static final long METRICS_PERIOD = 10;
+
     /**
      * Holds the fxml injected composition pane
      */
     @FXML
     private Pane fxCompositionSheet;
 
+    /**
+     * Holds the fxml injected scroll pane around the composition pane
+     */
+    @FXML
+    private ScrollPane fxScrollPane;
+
     /**
      * Holds the fxml injected of the TempoLine
      */
     @FXML
     private Line fxTempoLine;
 
+    /**
+     * Holds the fxml injected label showing the performance metrics
+     */
+    @FXML
+    private Label fxMetricsOverlay;
+
+    /**
+     * Holds the fxml injected menu item showing the performance metrics
+     */
+    @FXML
+    private CheckMenuItem fxMetricsMenuItem;
+
     /**
      * Holds the fxml injected instrument group
      */
@@ -57,19 +107,69 @@ public class Controller {
      */
     private Coordinates lastDragLocation;
 
+    /**
+     * Holds the coordinates of the latest drag event, not yet handled
+     */
+    private Coordinates pendingDragLocation;
+
+    /**
+     * Holds whether control was down in the latest drag event
+     */
+    private boolean isPendingControlDown;
+
+    /**
+     * Holds whether there is a drag event waiting to be handled
+     */
+    private boolean isDragPending;
+
+    /**
+     * Handles the waiting drag event on the next pulse, so however many
+     * drag events come between two frames only one is handled
+     */
+    private AnimationTimer dragPulse;
+
     /**
      * Holds whether the note is being dragged
      */
     private boolean isDragging;
 
+    /**
+     * Refreshes the performance metrics overlay while it is shown
+     */
+    private Timeline metricsRefresh;
+
     /**
      * Seeds our CompositionPaneManager and TempoLine objects with the
      * fields from the FXML file after the FXML has been initialized
      */
     public void initialize() {
         this.lastDragLocation = new Coordinates();
-        this.compositionManager = new CompositionManager(this.fxCompositionSheet, new TempoLine(fxTempoLine));
+        this.pendingDragLocation = new Coordinates();
+        this.dragPulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                handlePendingDrag();
+            }
+        };
+        this.compositionManager = new CompositionManager(this.fxScrollPane,
+                this.fxCompositionSheet, new TempoLine(fxTempoLine));
         handleInstrumentChange();
+        try {
+            this.compositionManager.openJournal(JOURNAL_DIRECTORY);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Toggle toggle : this.instrumentGroup.getToggles()) {
+            if (((RadioButton) toggle).getTextFill().equals(
+                    this.compositionManager.getInstrumentColor())) {
+                this.instrumentGroup.selectToggle(toggle);
+            }
+        }
+        this.fxMetricsMenuItem.setDisable(!PerformanceMetrics.ENABLED);
+        this.metricsRefresh = new Timeline(new KeyFrame(Duration.millis(500),
+                event -> this.fxMetricsOverlay.setText(PerformanceMetrics.getReport())));
+        this.metricsRefresh.setCycleCount(Animation.INDEFINITE);
+        PerformanceMetrics.startDumping(METRICS_FILE, METRICS_PERIOD);
     }
 
 
@@ -79,6 +179,22 @@ public class Controller {
      *                                                                        *
      **************************************************************************/
 
+    /**
+     * Undoes the last edit of the composition
+     */
+    @FXML
+    public void handleUndo() {
+        this.compositionManager.undo();
+    }
+
+    /**
+     * Makes the last undone edit of the composition again
+     */
+    @FXML
+    public void handleRedo() {
+        this.compositionManager.redo();
+    }
+
     /**
      * Sets all of the notes to be selected and adds them to the selected list.
      */
@@ -103,6 +219,34 @@ public class Controller {
         this.compositionManager.changeInstrument(instrument.getTextFill());
     }
 
+    /**
+     * Switches drawing the composition on a canvas on or off
+     *
+     * @param event the event from the menu item
+     */
+    @FXML
+    public void handleCanvasRendering(ActionEvent event) {
+        CheckMenuItem menuItem = (CheckMenuItem) event.getSource();
+        this.compositionManager.setCanvasRendering(menuItem.isSelected());
+    }
+
+    /**
+     * Shows or hides the performance metrics over the composition
+     *
+     * @param event the event from the menu item
+     */
+    @FXML
+    public void handleMetricsOverlay(ActionEvent event) {
+        CheckMenuItem menuItem = (CheckMenuItem) event.getSource();
+        this.fxMetricsOverlay.setText(PerformanceMetrics.getReport());
+        this.fxMetricsOverlay.setVisible(menuItem.isSelected());
+        if (menuItem.isSelected()) {
+            this.metricsRefresh.play();
+        } else {
+            this.metricsRefresh.stop();
+        }
+    }
+
     /**
      * Handles the GUI's mousePressed event.
      *
@@ -120,15 +264,37 @@ public class Controller {
     /**
      * Handles the GUI's mouseDrag event.
      *
+     * The mouse can send several drag events a frame, so the event is
+     * only kept, and the latest one handled on the next pulse.
+     *
      * @param mouseEvent the GUI's mouseEvent
      */
     @FXML
     public void handleMouseDrag(MouseEvent mouseEvent) {
-        compositionManager.handleDragMoved(mouseEvent.getX() - lastDragLocation.x,
-                mouseEvent.getY() - lastDragLocation.y, mouseEvent.isControlDown());
-        lastDragLocation.x = mouseEvent.getX();
-        lastDragLocation.y = mouseEvent.getY();
+        pendingDragLocation.x = mouseEvent.getX();
+        pendingDragLocation.y = mouseEvent.getY();
+        isPendingControlDown = mouseEvent.isControlDown();
         this.isDragging = true;
+        if (!isDragPending) {
+            isDragPending = true;
+            dragPulse.start();
+        }
+    }
+
+    /**
+     * Moves the drag to the latest drag event's location, if there is a
+     * drag event waiting.
+     */
+    private void handlePendingDrag() {
+        if (!isDragPending) {
+            return;
+        }
+        isDragPending = false;
+        dragPulse.stop();
+        compositionManager.handleDragMoved(pendingDragLocation.x - lastDragLocation.x,
+                pendingDragLocation.y - lastDragLocation.y, isPendingControlDown);
+        lastDragLocation.x = pendingDragLocation.x;
+        lastDragLocation.y = pendingDragLocation.y;
     }
 
     /**
@@ -138,6 +304,7 @@ public class Controller {
      */
     @FXML
     public void handleMouseReleased(MouseEvent mouseEvent) {
+        handlePendingDrag();
         if (!isDragging) {
             if (mouseEvent.isControlDown()) {
                 compositionManager.handleControlClickAt(mouseEvent.getX(), mouseEvent.getY());
@@ -171,6 +338,31 @@ public class Controller {
         this.compositionManager.play();
     }
 
+    /**
+     * Plays the composition from the last place clicked on.
+     */
+    @FXML
+    protected void handlePlayFromCursor() {
+        this.compositionManager.playFromCursor();
+    }
+
+    /**
+     * Plays only the selected notes.
+     */
+    @FXML
+    protected void handlePlaySelection() {
+        this.compositionManager.playSelection();
+    }
+
+    /**
+     * Plays the part of the composition the selected notes span, over
+     * and over until stopped.
+     */
+    @FXML
+    protected void handleLoopSelection() {
+        this.compositionManager.loopSelection();
+    }
+
     /**
      * Stops the reproduction of the composition
      */
@@ -179,6 +371,122 @@ public class Controller {
         this.compositionManager.stop();
     }
 
+    /**
+     * Switches streaming the composition when it is played on or off
+     *
+     * @param event the event from the menu item
+     */
+    @FXML
+    protected void handleStreamingPlayback(ActionEvent event) {
+        CheckMenuItem menuItem = (CheckMenuItem) event.getSource();
+        this.compositionManager.setStreamingPlayback(menuItem.isSelected());
+    }
+
+    /**
+     * Asks for a composition file and opens it in place of the composition
+     */
+    @FXML
+    protected void handleOpen() {
+        FileChooser fileChooser = createCompositionFileChooser("Open");
+        File file = fileChooser.showOpenDialog(this.fxCompositionSheet.getScene().getWindow());
+        if (file != null) {
+            try {
+                this.compositionManager.openComposition(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Asks for a file and saves the composition to it
+     */
+    @FXML
+    protected void handleSave() {
+        FileChooser fileChooser = createCompositionFileChooser("Save");
+        File file = fileChooser.showSaveDialog(this.fxCompositionSheet.getScene().getWindow());
+        if (file != null) {
+            try {
+                this.compositionManager.saveComposition(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Creates a file chooser showing composition files
+     *
+     * @param title the title of the chooser
+     * @return the file chooser
+     */
+    private FileChooser createCompositionFileChooser(String title) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle(title);
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("Compositions", "*.notes"));
+        return fileChooser;
+    }
+
+    /**
+     * Asks for a MIDI file and imports it in place of the composition
+     */
+    @FXML
+    protected void handleImportMidi() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import MIDI");
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("MIDI files", "*.mid", "*.midi"));
+        File file = fileChooser.showOpenDialog(this.fxCompositionSheet.getScene().getWindow());
+        if (file != null) {
+            try {
+                this.compositionManager.importMidi(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Asks for a file and exports the composition to it as MIDI
+     */
+    @FXML
+    protected void handleExportMidi() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Export MIDI");
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("MIDI files", "*.mid"));
+        File file = fileChooser.showSaveDialog(this.fxCompositionSheet.getScene().getWindow());
+        if (file != null) {
+            try {
+                this.compositionManager.exportMidi(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Asks for a file and renders the composition to it as WAV audio
+     */
+    @FXML
+    protected void handleExportWav() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Export WAV");
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("WAV files", "*.wav"));
+        File file = fileChooser.showSaveDialog(this.fxCompositionSheet.getScene().getWindow());
+        if (file != null) {
+            // rendering a long composition takes seconds, so it is done
+            // off the application thread
+            Task<Void> export = this.compositionManager.exportWav(file);
+            export.setOnFailed(event -> export.getException().printStackTrace());
+            Thread exportThread = new Thread(export, "WAV export");
+            exportThread.setDaemon(true);
+            exportThread.start();
+        }
+    }
+
     /**
      * Safely exits the program without throwing an error
      *
@@ -186,6 +494,7 @@ public class Controller {
      */
     @FXML
     protected void handleExit(ActionEvent event) {
+        this.compositionManager.closeJournal();
         System.exit(0);
     }
 
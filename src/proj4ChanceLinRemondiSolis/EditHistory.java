@@ -0,0 +1,537 @@
+/*
+ * File: EditHistory.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * This class keeps the edits made to a composition so they can be undone
+ * and redone.
+ *
+ * An edit is kept as what changed, not as copies of the notes: the ids
+ * of the notes it changed and one offset for all of them, or for added
+ * and deleted notes, their data in an int array. The edits kept in
+ * memory are limited to a number of bytes. Past that, the oldest edits
+ * are written to a spill file and read back only if they are undone, and
+ * past a number of edits the oldest are forgotten.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class EditHistory {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The number of ints an added or deleted note is kept with.
+     */
+    public static final int NOTE_SIZE = 6;
+
+    /**
+     * The number of bytes an edit takes besides its arrays, roughly.
+     */
+    private static final int EDIT_OVERHEAD = 64;
+
+    /**
+     * The spill file is not compacted before it is this big.
+     */
+    private static final long MINIMUM_COMPACTION_SIZE = 1 << 20;
+
+    /**
+     * The edits that can be undone, the last made at the end
+     */
+    private ArrayDeque<Edit> undoEdits;
+
+    /**
+     * The edits that can be redone, the last undone at the end
+     */
+    private ArrayDeque<Edit> redoEdits;
+
+    /**
+     * The most bytes of edits to keep in memory
+     */
+    private long memoryLimit;
+
+    /**
+     * The most edits to keep
+     */
+    private int editLimit;
+
+    /**
+     * The number of bytes of edits in memory
+     */
+    private long memoryUsed;
+
+    /**
+     * The file edits are spilled to, made when it is first needed
+     */
+    private Path spillPath;
+
+    /**
+     * The spill file, or null if it has not been opened
+     */
+    private FileChannel spillFile;
+
+    /**
+     * The number of bytes of the spill file holding edits still kept
+     */
+    private long spilledBytes;
+
+    /**
+     * Constructor
+     *
+     * @param memoryLimit the most bytes of edits to keep in memory
+     * @param editLimit   the most edits to keep
+     */
+    public EditHistory(long memoryLimit, int editLimit) {
+        this.undoEdits = new ArrayDeque<>();
+        this.redoEdits = new ArrayDeque<>();
+        this.memoryLimit = memoryLimit;
+        this.editLimit = editLimit;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                               Recording                                *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Records notes being moved.
+     *
+     * @param ids    the ids of the notes moved
+     * @param dTicks how many ticks later the notes start
+     * @param dPitch how much higher the notes are
+     */
+    public void recordMove(int[] ids, int dTicks, int dPitch) {
+        record(new Edit(Edit.MOVE, ids, dTicks, dPitch, new int[0]));
+    }
+
+    /**
+     * Records notes being resized. A note the minimum width stopped from
+     * changing by the whole amount is kept with its old duration.
+     *
+     * @param ids        the ids of the notes resized
+     * @param dTicks     how many ticks longer the notes are
+     * @param exceptions pairs of the id and old duration of each note
+     *                   whose duration did not change by dTicks
+     */
+    public void recordResize(int[] ids, int dTicks, int[] exceptions) {
+        record(new Edit(Edit.RESIZE, ids, dTicks, 0, exceptions));
+    }
+
+    /**
+     * Records notes being added.
+     *
+     * @param ids   the ids of the notes added
+     * @param notes the data of the notes, see getNoteData
+     */
+    public void recordAdd(int[] ids, int[] notes) {
+        record(new Edit(Edit.ADD, ids, 0, 0, notes));
+    }
+
+    /**
+     * Records notes being deleted.
+     *
+     * @param ids   the ids of the notes deleted
+     * @param notes the data of the notes, see getNoteData
+     */
+    public void recordDelete(int[] ids, int[] notes) {
+        record(new Edit(Edit.DELETE, ids, 0, 0, notes));
+    }
+
+    /**
+     * Copies the data of notes for recording them being added or deleted:
+     * the pitch, start tick, duration, channel, track and volume of each
+     * note in turn.
+     *
+     * @param store the store holding the notes
+     * @param ids   the ids of the notes
+     * @return the data of the notes
+     */
+    public static int[] getNoteData(NoteStore store, int[] ids) {
+        int[] notes = new int[ids.length * NOTE_SIZE];
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            notes[i * NOTE_SIZE] = store.getPitch(id);
+            notes[i * NOTE_SIZE + 1] = store.getStartTick(id);
+            notes[i * NOTE_SIZE + 2] = store.getDuration(id);
+            notes[i * NOTE_SIZE + 3] = store.getChannel(id);
+            notes[i * NOTE_SIZE + 4] = store.getTrackIndex(id);
+            notes[i * NOTE_SIZE + 5] = store.getVolume(id);
+        }
+        return notes;
+    }
+
+    /**
+     * Adds an edit just made, which stops the undone edits from being
+     * redone.
+     *
+     * @param edit the edit
+     */
+    private void record(Edit edit) {
+        for (Edit undone : this.redoEdits) {
+            forget(undone);
+        }
+        this.redoEdits.clear();
+        this.undoEdits.addLast(edit);
+        this.memoryUsed += edit.getSize();
+        while (this.undoEdits.size() > this.editLimit) {
+            forget(this.undoEdits.removeFirst());
+        }
+        spillOldEdits();
+    }
+
+    /**
+     * Forgets every edit, as when the whole composition is replaced.
+     */
+    public void clear() {
+        this.undoEdits.clear();
+        this.redoEdits.clear();
+        this.memoryUsed = 0;
+        this.spilledBytes = 0;
+        truncateSpillFile();
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                            Undo and redo                               *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Takes the last edit made to be undone, and keeps it to be redone.
+     *
+     * @return the edit, or null if there is nothing to undo
+     */
+    public Edit undo() {
+        Edit edit = move(this.undoEdits, this.redoEdits);
+        spillOldEdits();
+        return edit;
+    }
+
+    /**
+     * Takes the last edit undone to be made again, and keeps it to be
+     * undone.
+     *
+     * @return the edit, or null if there is nothing to redo
+     */
+    public Edit redo() {
+        Edit edit = move(this.redoEdits, this.undoEdits);
+        spillOldEdits();
+        return edit;
+    }
+
+    /**
+     * Moves the last edit of one list to the end of the other, reading it
+     * back from the spill file if it has been spilled.
+     *
+     * @param from the list to take the edit from
+     * @param to   the list to put the edit in
+     * @return the edit, or null if from is empty
+     */
+    private Edit move(ArrayDeque<Edit> from, ArrayDeque<Edit> to) {
+        Edit edit = from.pollLast();
+        if (edit == null) {
+            return null;
+        }
+        if (edit.isSpilled()) {
+            try {
+                unspill(edit);
+            } catch (IOException e) {
+                e.printStackTrace();
+                // the edit and those before it cannot be undone any more
+                forget(edit);
+                for (Edit older : from) {
+                    forget(older);
+                }
+                from.clear();
+                return null;
+            }
+        }
+        to.addLast(edit);
+        return edit;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                               Spilling                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Spills the edits least likely to be needed, the oldest made and
+     * then the first undone, until the rest fit in memory.
+     */
+    private void spillOldEdits() {
+        Iterator<Edit> undoEdits = this.undoEdits.iterator();
+        Iterator<Edit> redoEdits = this.redoEdits.iterator();
+        // always keep the edit next in line in memory
+        Edit nextUndo = this.undoEdits.peekLast();
+        while (this.memoryUsed > this.memoryLimit) {
+            Edit edit;
+            if (undoEdits.hasNext()) {
+                edit = undoEdits.next();
+            } else if (redoEdits.hasNext()) {
+                edit = redoEdits.next();
+            } else {
+                return;
+            }
+            if (edit.isSpilled() || edit == nextUndo || edit == this.redoEdits.peekLast()) {
+                continue;
+            }
+            try {
+                spill(edit);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes an edit's arrays to the end of the spill file and lets go
+     * of them.
+     *
+     * @param edit the edit to spill
+     * @throws IOException if the spill file cannot be written
+     */
+    private void spill(Edit edit) throws IOException {
+        if (this.spillFile == null) {
+            this.spillPath = Files.createTempFile("editHistory", ".spill");
+            this.spillPath.toFile().deleteOnExit();
+            this.spillFile = FileChannel.open(this.spillPath, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } else if (this.spillFile.size() > 2 * this.spilledBytes + MINIMUM_COMPACTION_SIZE) {
+            compactSpillFile();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (edit.ids.length + edit.values.length));
+        buffer.asIntBuffer().put(edit.ids).put(edit.values);
+        long offset = this.spillFile.size();
+        while (buffer.hasRemaining()) {
+            this.spillFile.write(buffer, offset + buffer.position());
+        }
+        this.memoryUsed -= edit.getSize();
+        this.spilledBytes += buffer.capacity();
+        edit.spillOffset = offset;
+        edit.numIds = edit.ids.length;
+        edit.numValues = edit.values.length;
+        edit.ids = null;
+        edit.values = null;
+    }
+
+    /**
+     * Copies the spilled edits still kept to a new spill file, leaving
+     * behind the space of those forgotten or read back.
+     *
+     * @throws IOException if a spill file cannot be read or written
+     */
+    private void compactSpillFile() throws IOException {
+        Path compactedPath = Files.createTempFile("editHistory", ".spill");
+        compactedPath.toFile().deleteOnExit();
+        FileChannel compacted = FileChannel.open(compactedPath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long offset = 0;
+        for (ArrayDeque<Edit> edits : Arrays.asList(this.undoEdits, this.redoEdits)) {
+            for (Edit edit : edits) {
+                if (edit.isSpilled()) {
+                    long length = 4L * (edit.numIds + edit.numValues);
+                    long copied = 0;
+                    while (copied < length) {
+                        copied += this.spillFile.transferTo(edit.spillOffset + copied,
+                                length - copied, compacted);
+                    }
+                    edit.spillOffset = offset;
+                    offset += length;
+                }
+            }
+        }
+        this.spillFile.close();
+        Files.delete(this.spillPath);
+        this.spillFile = compacted;
+        this.spillPath = compactedPath;
+    }
+
+    /**
+     * Reads a spilled edit's arrays back from the spill file.
+     *
+     * @param edit the edit to read back
+     * @throws IOException if the spill file cannot be read
+     */
+    private void unspill(Edit edit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (edit.numIds + edit.numValues));
+        while (buffer.hasRemaining()) {
+            if (this.spillFile.read(buffer, edit.spillOffset + buffer.position()) < 0) {
+                throw new IOException("The spill file is cut short");
+            }
+        }
+        buffer.flip();
+        edit.ids = new int[edit.numIds];
+        edit.values = new int[edit.numValues];
+        buffer.asIntBuffer().get(edit.ids).get(edit.values);
+        forget(edit);
+        this.memoryUsed += edit.getSize();
+    }
+
+    /**
+     * Stops counting an edit that is no longer kept, in memory or in the
+     * spill file. The spill file is emptied once it holds no edits.
+     *
+     * @param edit the edit
+     */
+    private void forget(Edit edit) {
+        if (edit.isSpilled()) {
+            this.spilledBytes -= 4L * (edit.numIds + edit.numValues);
+            edit.spillOffset = -1;
+            if (this.spilledBytes == 0) {
+                truncateSpillFile();
+            }
+        } else {
+            this.memoryUsed -= edit.getSize();
+        }
+    }
+
+    /**
+     * Empties the spill file, if it is open.
+     */
+    private void truncateSpillFile() {
+        if (this.spillFile != null) {
+            try {
+                this.spillFile.truncate(0);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                             Helper classes                             *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * One edit of the composition. Its arrays are null while it is
+     * spilled.
+     */
+    public static class Edit {
+        /**
+         * Kinds of edit
+         */
+        public static final int MOVE = 0, RESIZE = 1, ADD = 2, DELETE = 3;
+
+        /**
+         * The kind of edit
+         */
+        final int type;
+
+        /**
+         * The ids of the notes edited
+         */
+        int[] ids;
+
+        /**
+         * The offset in ticks, for a move or resize
+         */
+        final int dTicks;
+
+        /**
+         * The offset in pitch, for a move
+         */
+        final int dPitch;
+
+        /**
+         * The note data of an add or delete, or the exceptions of a resize
+         */
+        int[] values;
+
+        /**
+         * Where the arrays are in the spill file, or -1 if not spilled
+         */
+        long spillOffset;
+
+        /**
+         * The lengths of the arrays while they are spilled
+         */
+        int numIds, numValues;
+
+        Edit(int type, int[] ids, int dTicks, int dPitch, int[] values) {
+            this.type = type;
+            this.ids = ids;
+            this.dTicks = dTicks;
+            this.dPitch = dPitch;
+            this.values = values;
+            this.spillOffset = -1;
+        }
+
+        /**
+         * @return the kind of edit
+         */
+        public int getType() {
+            return this.type;
+        }
+
+        /**
+         * @return the ids of the notes edited
+         */
+        public int[] getIds() {
+            return this.ids;
+        }
+
+        /**
+         * @return the offset in ticks of a move or resize
+         */
+        public int getDTicks() {
+            return this.dTicks;
+        }
+
+        /**
+         * @return the offset in pitch of a move
+         */
+        public int getDPitch() {
+            return this.dPitch;
+        }
+
+        /**
+         * @return the note data of an add or delete, or the pairs of id
+         * and old duration of a resize
+         */
+        public int[] getValues() {
+            return this.values;
+        }
+
+        boolean isSpilled() {
+            return this.spillOffset >= 0;
+        }
+
+        long getSize() {
+            return EDIT_OVERHEAD + 4L * (this.ids.length + this.values.length);
+        }
+    }
+}
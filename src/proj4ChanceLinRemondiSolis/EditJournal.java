@@ -0,0 +1,690 @@
+/*
+ * File: EditJournal.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This class records every edit of a composition in a journal file on
+ * disk, so the composition can be recovered if the program dies.
+ *
+ * Each edit is appended to a buffer in memory as a small binary record.
+ * A background thread writes whatever has built up to the journal as one
+ * frame and syncs it before taking the next, so many quick edits share a
+ * single sync and an edit never waits for the disk.
+ *
+ * Now and then the whole composition is written to a snapshot file and
+ * the journal is started again empty. On startup the last snapshot is
+ * read and the journal replayed on top of it. Both files start with a
+ * generation number, and a journal is only replayed onto the snapshot of
+ * its own generation, so a crash part way through replacing them loses
+ * nothing. When the program exits normally both files are deleted, so
+ * only a crash leaves a composition to recover.
+ *
+ * The directory is locked while a journal is open in it, so a second
+ * copy of the program cannot write over the first one's journal.
+ *
+ * A frame is its payload's length (int), the CRC-32 of its payload (int)
+ * and the payload. Replay stops at the first frame that is cut short or
+ * does not match its CRC, as the last frame is when the program dies
+ * while writing it. Records are a type byte followed by varints; ticks
+ * and pitches are zigzag encoded since notes dragged off the sheet can
+ * have negative ones.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class EditJournal {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The first four bytes of a journal file, "CSJL".
+     */
+    private static final int JOURNAL_MAGIC = 0x43534A4C;
+
+    /**
+     * The first four bytes of a snapshot file, "CSSS".
+     */
+    private static final int SNAPSHOT_MAGIC = 0x43535353;
+
+    /**
+     * The size of a file header: magic (int) and generation (long).
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The size of a frame header: payload length and CRC (ints).
+     */
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    /**
+     * The journal is not replaced by a snapshot before it is this big.
+     */
+    private static final long MINIMUM_COMPACTION_SIZE = 1 << 20;
+
+    /**
+     * Record types
+     */
+    private static final byte ADD = 1, CHANGE = 2, REMOVE = 3, INSTRUMENT = 4;
+
+    /**
+     * The file holding the last snapshot
+     */
+    private Path snapshotPath;
+
+    /**
+     * The file holding the edits made since the last snapshot
+     */
+    private Path journalPath;
+
+    /**
+     * The lock held on the directory until the journal is closed
+     */
+    private FileLock directoryLock;
+
+    /**
+     * The journal file, opened by the writer thread
+     */
+    private FileChannel journal;
+
+    /**
+     * The generation of the last snapshot
+     */
+    private long generation;
+
+    /**
+     * The records waiting to be written, guarded by this
+     */
+    private ByteBuffer pending;
+
+    /**
+     * The buffer pending is swapped with, null while it is being written
+     */
+    private ByteBuffer spare;
+
+    /**
+     * A snapshot waiting to be written, or null
+     */
+    private ByteBuffer pendingSnapshot;
+
+    /**
+     * The number of bytes recorded since the last snapshot, and the size
+     * of the last snapshot
+     */
+    private long journalSize, snapshotSize;
+
+    /**
+     * Writes the records and snapshots, started with the first snapshot
+     */
+    private Thread writer;
+
+    /**
+     * Whether the journal has been closed or could not be written
+     */
+    private boolean isClosed;
+
+    /**
+     * Constructor
+     *
+     * @param directory the directory to keep the journal in, made if it
+     *                  does not exist
+     * @throws IOException if the directory cannot be made, or another
+     *                     journal is open in it
+     */
+    public EditJournal(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve("composition.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.directoryLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by this program already
+        }
+        if (this.directoryLock == null) {
+            lockChannel.close();
+            throw new IOException("The journal in " + directory + " is in use");
+        }
+        this.snapshotPath = directory.resolve("composition.snapshot");
+        this.journalPath = directory.resolve("composition.journal");
+        this.pending = ByteBuffer.allocate(4096);
+        this.spare = ByteBuffer.allocate(4096);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                               Recording                                *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Records a note being added.
+     *
+     * @param note the note added
+     */
+    public synchronized void noteAdded(MusicalNote note) {
+        this.pending = ensureRoom(this.pending, 40);
+        int start = this.pending.position();
+        putAdd(this.pending, note.getId(), note.getPitch(), note.getStartTick(),
+                note.getDuration(), note.getChannel(), note.getTrackIndex(),
+                note.getVolume());
+        recorded(start);
+    }
+
+    /**
+     * Records a note being moved or resized.
+     *
+     * @param note the note in its new place
+     */
+    public synchronized void noteChanged(MusicalNote note) {
+        this.pending = ensureRoom(this.pending, 40);
+        int start = this.pending.position();
+        this.pending.put(CHANGE);
+        CompositionFile.putVarInt(this.pending, note.getId());
+        CompositionFile.putVarInt(this.pending, CompositionFile.zigzag(note.getPitch()));
+        CompositionFile.putVarInt(this.pending, CompositionFile.zigzag(note.getStartTick()));
+        CompositionFile.putVarInt(this.pending, note.getDuration());
+        recorded(start);
+    }
+
+    /**
+     * Records a note being deleted.
+     *
+     * @param note the note deleted
+     */
+    public synchronized void noteRemoved(MusicalNote note) {
+        this.pending = ensureRoom(this.pending, 10);
+        int start = this.pending.position();
+        this.pending.put(REMOVE);
+        CompositionFile.putVarInt(this.pending, note.getId());
+        recorded(start);
+    }
+
+    /**
+     * Records the instrument for new notes being changed.
+     *
+     * @param channel the channel of the instrument
+     */
+    public synchronized void instrumentChanged(int channel) {
+        this.pending = ensureRoom(this.pending, 10);
+        int start = this.pending.position();
+        putInstrument(this.pending, channel);
+        recorded(start);
+    }
+
+    /**
+     * Replaces the journal with a snapshot of the whole composition. The
+     * snapshot is taken now and written in the background; edits
+     * recorded before it are not written since it includes them.
+     *
+     * @param store      the notes of the composition
+     * @param instrument the channel of the instrument for new notes, or -1
+     */
+    public void snapshot(NoteStore store, int instrument) {
+        ByteBuffer snapshot = ByteBuffer.allocate(64 + store.size() * 24);
+        int idLimit = store.getIdLimit();
+        for (int id = 0; id < idLimit; id++) {
+            if (store.isLive(id)) {
+                snapshot = ensureRoom(snapshot, 40);
+                putAdd(snapshot, id, store.getPitch(id), store.getStartTick(id),
+                        store.getDuration(id), store.getChannel(id),
+                        store.getTrackIndex(id), store.getVolume(id));
+            }
+        }
+        if (instrument >= 0) {
+            putInstrument(snapshot, instrument);
+        }
+        snapshot.flip();
+
+        synchronized (this) {
+            if (this.isClosed) {
+                return;
+            }
+            this.pending.clear();
+            this.pendingSnapshot = snapshot;
+            this.journalSize = 0;
+            this.snapshotSize = snapshot.remaining();
+            if (this.writer == null) {
+                this.writer = new Thread(this::writeRecords, "EditJournal");
+                this.writer.setDaemon(true);
+                this.writer.start();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Checks whether the journal has grown big enough, next to the last
+     * snapshot, that it should be replaced by a new snapshot.
+     *
+     * @return whether a snapshot is due
+     */
+    public synchronized boolean isSnapshotDue() {
+        return this.journalSize > Math.max(MINIMUM_COMPACTION_SIZE, this.snapshotSize);
+    }
+
+    /**
+     * Writes the records still waiting, stops recording and unlocks the
+     * directory. The files are kept, to be recovered.
+     */
+    public void close() {
+        stopWriter(false);
+        unlock();
+    }
+
+    /**
+     * Stops recording when the program exits normally, deleting the
+     * journal and the snapshot since there is nothing to recover, and
+     * unlocks the directory.
+     */
+    public void delete() {
+        stopWriter(true);
+        try {
+            Files.deleteIfExists(this.journalPath);
+            Files.deleteIfExists(this.snapshotPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        unlock();
+    }
+
+    /**
+     * Stops the writer and waits for it to finish.
+     *
+     * @param isDiscarding whether to drop the records still waiting
+     *                     rather than write them
+     */
+    private void stopWriter(boolean isDiscarding) {
+        Thread writerToJoin;
+        synchronized (this) {
+            this.isClosed = true;
+            if (isDiscarding) {
+                this.pending.clear();
+                this.pendingSnapshot = null;
+            }
+            writerToJoin = this.writer;
+            notifyAll();
+        }
+        if (writerToJoin != null) {
+            try {
+                writerToJoin.join(2000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Releases the lock on the directory.
+     */
+    private void unlock() {
+        try {
+            this.directoryLock.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wakes the writer after a record has been appended to pending, or
+     * drops the record if nothing is being written.
+     *
+     * @param start the position in pending where the record starts
+     */
+    private void recorded(int start) {
+        if (this.isClosed || this.writer == null) {
+            this.pending.position(start);
+            return;
+        }
+        this.journalSize += this.pending.position() - start;
+        notifyAll();
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Writing                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Runs on the writer thread: writes the waiting snapshot, if there is
+     * one, and then everything recorded, as one frame, until closed.
+     */
+    private void writeRecords() {
+        try {
+            while (true) {
+                ByteBuffer snapshot;
+                ByteBuffer batch;
+                synchronized (this) {
+                    while (!this.isClosed && this.pendingSnapshot == null
+                            && this.pending.position() == 0) {
+                        wait();
+                    }
+                    if (this.pendingSnapshot == null && this.pending.position() == 0) {
+                        break;
+                    }
+                    snapshot = this.pendingSnapshot;
+                    this.pendingSnapshot = null;
+                    batch = this.pending;
+                    this.pending = this.spare;
+                    this.spare = null;
+                }
+
+                if (snapshot != null) {
+                    writeSnapshot(snapshot);
+                }
+                batch.flip();
+                if (batch.hasRemaining()) {
+                    writeFrame(this.journal, batch);
+                    this.journal.force(false);
+                }
+                batch.clear();
+
+                synchronized (this) {
+                    this.spare = batch;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            synchronized (this) {
+                this.isClosed = true;
+                this.pending.clear();
+            }
+        } finally {
+            try {
+                if (this.journal != null) {
+                    this.journal.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the next generation next to the old one, puts
+     * it in the old one's place, then starts an empty journal for it.
+     *
+     * @param snapshot the records of the snapshot
+     * @throws IOException if a file cannot be written
+     */
+    private void writeSnapshot(ByteBuffer snapshot) throws IOException {
+        long nextGeneration = this.generation + 1;
+        Path temporaryPath = this.snapshotPath.resolveSibling("composition.snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(channel, SNAPSHOT_MAGIC, nextGeneration);
+            writeFrame(channel, snapshot);
+            channel.force(false);
+        }
+        Files.move(temporaryPath, this.snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        if (this.journal == null) {
+            this.journal = FileChannel.open(this.journalPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+        }
+        this.journal.truncate(0);
+        this.journal.position(0);
+        writeHeader(this.journal, JOURNAL_MAGIC, nextGeneration);
+        this.journal.force(false);
+        this.generation = nextGeneration;
+    }
+
+    /**
+     * Writes the header of a journal or snapshot file.
+     *
+     * @param channel    the file to write to
+     * @param magic      the magic number of the file
+     * @param generation the generation of the file
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeHeader(FileChannel channel, int magic, long generation)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(magic);
+        header.putLong(generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Writes a frame holding the remaining bytes of a buffer.
+     *
+     * @param channel the file to write to
+     * @param payload the records of the frame
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeFrame(FileChannel channel, ByteBuffer payload)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        header.putInt(payload.remaining());
+        header.putInt((int) crc.getValue());
+        header.flip();
+        ByteBuffer[] frame = {header, payload};
+        while (header.hasRemaining() || payload.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                               Recovery                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Rebuilds the composition from the last snapshot and the journal,
+     * keeping the ids the notes had. Must be called before the first
+     * snapshot is taken.
+     *
+     * @param store an empty store to put the notes in
+     * @return the channel of the instrument for new notes, or -1 if it
+     * was never recorded
+     * @throws IOException if a file exists but cannot be read
+     */
+    public int recover(NoteStore store) throws IOException {
+        int[] instrument = {-1};
+        ByteBuffer snapshot = readFile(this.snapshotPath, SNAPSHOT_MAGIC);
+        if (snapshot != null) {
+            this.generation = snapshot.getLong();
+            replay(snapshot, store, instrument);
+        }
+        ByteBuffer journalRecords = readFile(this.journalPath, JOURNAL_MAGIC);
+        if (journalRecords != null && journalRecords.getLong() == this.generation) {
+            replay(journalRecords, store, instrument);
+        }
+        return instrument[0];
+    }
+
+    /**
+     * Reads a journal or snapshot file.
+     *
+     * @param path  the file to read
+     * @param magic the magic number the file must start with
+     * @return the file positioned at its generation, or null if it does
+     * not exist or is not the expected kind of file
+     * @throws IOException if the file cannot be read
+     */
+    private static ByteBuffer readFile(Path path, int magic) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (file.remaining() < HEADER_SIZE || file.getInt() != magic) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Applies the records of every whole, undamaged frame to a store.
+     *
+     * @param file       the file, positioned at its first frame
+     * @param store      the store to apply the records to
+     * @param instrument holds the channel of the last instrument record
+     */
+    private static void replay(ByteBuffer file, NoteStore store, int[] instrument) {
+        CRC32 crc = new CRC32();
+        while (file.remaining() >= FRAME_HEADER_SIZE) {
+            int length = file.getInt();
+            int expectedCrc = file.getInt();
+            if (length < 0 || length > file.remaining()) {
+                return;
+            }
+            ByteBuffer payload = file.slice();
+            payload.limit(length);
+            file.position(file.position() + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                return;
+            }
+            try {
+                while (payload.hasRemaining()) {
+                    replayRecord(payload, store, instrument);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException |
+                    IndexOutOfBoundsException e) {
+                // a record that does not fit the notes replayed so far
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies one record to a store.
+     *
+     * @param records    the records, positioned at the record
+     * @param store      the store to apply the record to
+     * @param instrument holds the channel of the last instrument record
+     */
+    private static void replayRecord(ByteBuffer records, NoteStore store, int[] instrument) {
+        byte type = records.get();
+        int id;
+        switch (type) {
+            case ADD:
+                id = (int) CompositionFile.getVarInt(records);
+                int pitch = (int) CompositionFile.unzigzag(CompositionFile.getVarInt(records));
+                int start = (int) CompositionFile.unzigzag(CompositionFile.getVarInt(records));
+                int duration = (int) CompositionFile.getVarInt(records);
+                int channel = (int) CompositionFile.getVarInt(records);
+                int track = (int) CompositionFile.getVarInt(records);
+                int volume = (int) CompositionFile.getVarInt(records);
+                store.addAt(id, pitch, start, duration, channel, track, volume);
+                break;
+            case CHANGE:
+                id = getLiveId(records, store);
+                store.setPitch(id, (int) CompositionFile.unzigzag(
+                        CompositionFile.getVarInt(records)));
+                store.setStartTick(id, (int) CompositionFile.unzigzag(
+                        CompositionFile.getVarInt(records)));
+                store.setDuration(id, (int) CompositionFile.getVarInt(records));
+                break;
+            case REMOVE:
+                store.remove(getLiveId(records, store));
+                break;
+            case INSTRUMENT:
+                instrument[0] = (int) CompositionFile.getVarInt(records);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Reads the id of a record and checks that it holds a note.
+     *
+     * @param records the records, positioned at the id
+     * @param store   the store the id is in
+     * @return the id
+     * @throws IllegalArgumentException if the id does not hold a note
+     */
+    private static int getLiveId(ByteBuffer records, NoteStore store) {
+        long id = CompositionFile.getVarInt(records);
+        if (id >= store.getIdLimit() || !store.isLive((int) id)) {
+            throw new IllegalArgumentException("Note id " + id + " is not in use");
+        }
+        return (int) id;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                            Record encoding                             *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Appends a record adding a note.
+     */
+    private static void putAdd(ByteBuffer buffer, int id, int pitch, int startTick,
+                               int duration, int channel, int trackIndex, int volume) {
+        buffer.put(ADD);
+        CompositionFile.putVarInt(buffer, id);
+        CompositionFile.putVarInt(buffer, CompositionFile.zigzag(pitch));
+        CompositionFile.putVarInt(buffer, CompositionFile.zigzag(startTick));
+        CompositionFile.putVarInt(buffer, duration);
+        CompositionFile.putVarInt(buffer, channel);
+        CompositionFile.putVarInt(buffer, trackIndex);
+        CompositionFile.putVarInt(buffer, volume);
+    }
+
+    /**
+     * Appends a record setting the instrument for new notes.
+     */
+    private static void putInstrument(ByteBuffer buffer, int channel) {
+        buffer.put(INSTRUMENT);
+        CompositionFile.putVarInt(buffer, channel);
+    }
+
+    /**
+     * Makes sure a buffer has room for some more bytes.
+     *
+     * @param buffer the buffer
+     * @param room   the number of bytes needed
+     * @return the buffer, or a bigger copy of it
+     */
+    private static ByteBuffer ensureRoom(ByteBuffer buffer, int room) {
+        if (buffer.remaining() >= room) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2,
+                buffer.position() + room));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * File: Instruments.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+/**
+ * This class holds the instrument played on each channel of a
+ * composition, shared by everything that turns notes into sound.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class Instruments {
+
+    /**
+     * The General MIDI program played on each channel: piano, harpsichord,
+     * marimba, organ, accordion, guitar, violin and french horn.
+     */
+    private static final int[] PROGRAMS = {0, 6, 12, 19, 21, 25, 40, 60};
+
+    /**
+     * The number of channels that have an instrument.
+     */
+    public static final int NUM_CHANNELS = PROGRAMS.length;
+
+    /**
+     * Retrieves the program played on a channel
+     *
+     * @param channel the channel number, from 0 to NUM_CHANNELS - 1
+     * @return the General MIDI program number
+     */
+    public static int getProgram(int channel) {
+        return PROGRAMS[channel];
+    }
+
+    /**
+     * Finds the channel whose instrument is closest to a program. General
+     * MIDI groups similar instruments under neighbouring program numbers,
+     * so the channel with the nearest program number is picked.
+     *
+     * @param program the General MIDI program number
+     * @return the channel number, from 0 to NUM_CHANNELS - 1
+     */
+    public static int getClosestChannel(int program) {
+        int closest = 0;
+        for (int channel = 1; channel < NUM_CHANNELS; channel++) {
+            if (Math.abs(PROGRAMS[channel] - program) < Math.abs(PROGRAMS[closest] - program)) {
+                closest = channel;
+            }
+        }
+        return closest;
+    }
+}
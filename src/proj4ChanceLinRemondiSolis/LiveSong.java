@@ -0,0 +1,350 @@
+/*
+ * File: LiveSong.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class keeps the sequence of a MidiPlayer in step with the notes
+ * of a NoteStore. Every edit to a note replaces only that note's
+ * NOTE_ON and NOTE_OFF events, so the sequence is always ready to play.
+ *
+ * When the whole store is replaced, as when a file is opened, the events
+ * are not added one note at a time. They are all added in one batch the
+ * next time the sequence is about to be played, built on a background
+ * thread so the composition can still be edited meanwhile.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class LiveSong {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The thread sequences are built on, one at a time
+     */
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(
+            (runnable) -> {
+                Thread thread = new Thread(runnable, "LiveSong");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The player whose sequence is kept up to date
+     */
+    private MidiPlayer midiPlayer;
+
+    /**
+     * The notes played by the sequence
+     */
+    private NoteStore store;
+
+    /**
+     * The NOTE_ON event in the sequence for each note id
+     */
+    private MidiEvent[] noteOnEvents;
+
+    /**
+     * The NOTE_OFF event in the sequence for each note id
+     */
+    private MidiEvent[] noteOffEvents;
+
+    /**
+     * The track each note's events were added to
+     */
+    private int[] trackIndices;
+
+    /**
+     * Whether the notes of the store still have to be added to the sequence
+     */
+    private boolean isStale;
+
+    /**
+     * Runs tasks on the thread that edits the notes
+     */
+    private Executor editThread;
+
+    /**
+     * The number of notes added or removed so far, so a build can tell
+     * whether the notes it copied are still current
+     */
+    private int editCount;
+
+    /**
+     * Completed once the sequence being built is swapped in, or null if
+     * none is being built
+     */
+    private CompletableFuture<Void> pendingBuild;
+
+    /**
+     * Constructor
+     *
+     * @param midiPlayer the player whose sequence is kept up to date
+     * @param store      the notes played by the sequence
+     * @param editThread runs tasks on the thread that edits the notes
+     */
+    public LiveSong(MidiPlayer midiPlayer, NoteStore store, Executor editThread) {
+        this.midiPlayer = midiPlayer;
+        this.store = store;
+        this.editThread = editThread;
+        this.noteOnEvents = new MidiEvent[0];
+        this.noteOffEvents = new MidiEvent[0];
+        this.trackIndices = new int[0];
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                          Sequence maintenance                          *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Adds the events of a note that was added to the store.
+     *
+     * @param id the id of the note
+     */
+    public void addNote(int id) {
+        this.editCount++;
+        if (this.isStale) {
+            return;
+        }
+        if (id >= this.noteOnEvents.length) {
+            int capacity = Math.max(id + 1, this.noteOnEvents.length * 2);
+            this.noteOnEvents = Arrays.copyOf(this.noteOnEvents, capacity);
+            this.noteOffEvents = Arrays.copyOf(this.noteOffEvents, capacity);
+            this.trackIndices = Arrays.copyOf(this.trackIndices, capacity);
+        }
+        MidiEvent[] events = this.midiPlayer.addNote(
+                this.store.getPitch(id),
+                this.store.getVolume(id),
+                this.store.getStartTick(id),
+                this.store.getDuration(id),
+                this.store.getChannel(id),
+                this.store.getTrackIndex(id));
+        this.noteOnEvents[id] = events[0];
+        this.noteOffEvents[id] = events[1];
+        this.trackIndices[id] = this.store.getTrackIndex(id);
+    }
+
+    /**
+     * Removes the events of a note. Must be called before the note's id
+     * is handed out again by the store.
+     *
+     * @param id the id of the note
+     */
+    public void removeNote(int id) {
+        this.editCount++;
+        if (id < this.noteOnEvents.length && this.noteOnEvents[id] != null) {
+            this.midiPlayer.removeMidiEvent(this.noteOnEvents[id], this.trackIndices[id]);
+            this.midiPlayer.removeMidiEvent(this.noteOffEvents[id], this.trackIndices[id]);
+            this.noteOnEvents[id] = null;
+            this.noteOffEvents[id] = null;
+        }
+    }
+
+    /**
+     * Forgets the events of every note, after the player's sequence has
+     * been cleared and the store refilled. The notes' events are added by
+     * the next call to prepare. A sequence being built is thrown away.
+     */
+    public void reset() {
+        Arrays.fill(this.noteOnEvents, null);
+        Arrays.fill(this.noteOffEvents, null);
+        this.isStale = true;
+        if (this.pendingBuild != null) {
+            this.pendingBuild.cancel(false);
+            this.pendingBuild = null;
+        }
+    }
+
+    /**
+     * Gets the sequence ready to play, adding the events of all the notes
+     * in one batch if the sequence was reset.
+     *
+     * The batch is built into a new sequence on a background thread, from
+     * a copy of the notes taken now, and swapped into the player on the
+     * thread that edits the notes once done. If the notes are edited
+     * meanwhile, the build is thrown away and started again from the
+     * edited notes. Asking again while a build is running waits for that
+     * build rather than starting another.
+     *
+     * @return completed on the thread that edits the notes once the
+     *         sequence holds every note; cancelled if the sequence is
+     *         reset first
+     */
+    public CompletableFuture<Void> prepare() {
+        if (!this.isStale) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (this.pendingBuild == null) {
+            this.pendingBuild = new CompletableFuture<>();
+            startBuild();
+        }
+        return this.pendingBuild;
+    }
+
+    /**
+     * Copies the notes of the store and builds a sequence from them on
+     * the background thread.
+     */
+    private void startBuild() {
+        Build build = new Build(this.store, this.editCount, this.pendingBuild);
+        CompletableFuture.supplyAsync(() -> build.buildSequence(this.midiPlayer), BUILDER)
+                .whenCompleteAsync((sequence, error) -> finishBuild(build, sequence, error),
+                        this.editThread);
+    }
+
+    /**
+     * Swaps a built sequence into the player, unless the build has been
+     * cancelled, or the notes were edited since they were copied, in
+     * which case the build is started again.
+     *
+     * @param build    the build that finished
+     * @param sequence the sequence built
+     * @param error    the error the build failed with, or null
+     */
+    private void finishBuild(Build build, Sequence sequence, Throwable error) {
+        if (build.result != this.pendingBuild) {
+            return;
+        }
+        if (error != null) {
+            this.pendingBuild = null;
+            build.result.completeExceptionally(error);
+            return;
+        }
+        if (build.editCount != this.editCount) {
+            startBuild();
+            return;
+        }
+        this.pendingBuild = null;
+        this.isStale = false;
+        this.midiPlayer.setSequence(sequence);
+        int idLimit = this.store.getIdLimit();
+        if (idLimit > this.noteOnEvents.length) {
+            this.noteOnEvents = Arrays.copyOf(this.noteOnEvents, idLimit);
+            this.noteOffEvents = Arrays.copyOf(this.noteOffEvents, idLimit);
+            this.trackIndices = Arrays.copyOf(this.trackIndices, idLimit);
+        }
+        for (int i = 0; i < build.count; i++) {
+            this.noteOnEvents[build.ids[i]] = build.noteOnEvents[i];
+            this.noteOffEvents[build.ids[i]] = build.noteOffEvents[i];
+            this.trackIndices[build.ids[i]] = build.tracks[i];
+        }
+        PerformanceMetrics.songBuilt(build.measurement, build.count, this.midiPlayer);
+        build.result.complete(null);
+    }
+
+    /**
+     * Replaces the events of a note that was moved, resized or
+     * given another instrument.
+     *
+     * @param id the id of the note
+     */
+    public void updateNote(int id) {
+        removeNote(id);
+        addNote(id);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                            Helper classes                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * A copy of the notes of the store, taken on the thread that edits
+     * them, and the events built from it on the background thread.
+     */
+    private static class Build {
+        final NoteStore notes;
+        final int editCount;
+        final CompletableFuture<Void> result;
+        final PerformanceMetrics.Measurement measurement;
+        int count;
+        int[] ids, tracks;
+        MidiEvent[] noteOnEvents, noteOffEvents;
+
+        /**
+         * @param store     the notes to copy
+         * @param editCount the number of edits made so far
+         * @param result    completed once the sequence is swapped in
+         */
+        Build(NoteStore store, int editCount, CompletableFuture<Void> result) {
+            this.measurement = PerformanceMetrics.startSongBuild();
+            // only the arrays are copied here, so the thread editing the
+            // notes is not held up by the rest
+            this.notes = new NoteStore(store);
+            this.editCount = editCount;
+            this.result = result;
+            this.count = store.size();
+        }
+
+        /**
+         * @param midiPlayer the player the sequence is for
+         * @return the sequence of the copied notes that can be played
+         */
+        Sequence buildSequence(MidiPlayer midiPlayer) {
+            this.ids = new int[this.count];
+            this.tracks = new int[this.count];
+            this.noteOnEvents = new MidiEvent[this.count];
+            this.noteOffEvents = new MidiEvent[this.count];
+            int[] pitches = new int[this.count];
+            int[] volumes = new int[this.count];
+            int[] startTicks = new int[this.count];
+            int[] durations = new int[this.count];
+            int[] channels = new int[this.count];
+            int idLimit = this.notes.getIdLimit();
+            int i = 0;
+            for (int id = 0; id < idLimit; id++) {
+                // notes dragged off the sheet are left out of the sequence
+                if (this.notes.isLive(id) && MidiPlayer.isPlayable(
+                        this.notes.getPitch(id), this.notes.getVolume(id),
+                        this.notes.getStartTick(id), this.notes.getDuration(id),
+                        this.notes.getChannel(id), this.notes.getTrackIndex(id))) {
+                    this.ids[i] = id;
+                    pitches[i] = this.notes.getPitch(id);
+                    volumes[i] = this.notes.getVolume(id);
+                    startTicks[i] = this.notes.getStartTick(id);
+                    durations[i] = this.notes.getDuration(id);
+                    channels[i] = this.notes.getChannel(id);
+                    this.tracks[i] = this.notes.getTrackIndex(id);
+                    i++;
+                }
+            }
+            this.count = i;
+            try {
+                return midiPlayer.buildSequence(this.count, pitches, volumes, startTicks,
+                        durations, channels, this.tracks, this.noteOnEvents,
+                        this.noteOffEvents);
+            } catch (InvalidMidiDataException e) {
+                // cannot happen, the resolution of the sequence is fixed
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -45,16 +45,17 @@ public class Main extends Application {
     @Override
     public void start(Stage primaryStage) {
         BorderPane root = null;
+        FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("Main.fxml"));
         try {
-            FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("Main.fxml"));
             root = fxmlLoader.load();
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
         }
+        Controller controller = fxmlLoader.getController();
         primaryStage.setTitle("Composition Sheet");
         primaryStage.setScene(new Scene(root, 800, 500));
-        primaryStage.setOnCloseRequest(event -> System.exit(0));
+        primaryStage.setOnCloseRequest(event -> controller.handleExit(null));
         primaryStage.show();
     }
 }
@@ -0,0 +1,607 @@
+/*
+ * File: MidiFileReader.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class reads the notes of a Standard MIDI File into a NoteStore.
+ *
+ * The file is mapped and each track is parsed straight from its bytes,
+ * in one pass and in parallel with the other tracks, without building a
+ * Sequence. NOTE_ON and NOTE_OFF events are paired into notes through a
+ * table of the note sounding on each channel and pitch. Once every track
+ * is parsed, the tempo changes of all the tracks turn the file's ticks
+ * into ticks of the composition, and the program each note's channel
+ * was set to picks the composition channel with the closest instrument.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class MidiFileReader {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The number of microseconds in a minute.
+     */
+    private static final int MICROSECONDS_PER_MINUTE = 60000000;
+
+    /**
+     * The microseconds per beat of a file until its first tempo change.
+     */
+    private static final int DEFAULT_TEMPO = 500000;
+
+    /**
+     * The number of ticks per beat of the composition
+     */
+    private int resolution;
+
+    /**
+     * The number of beats per minute of the composition
+     */
+    private int beatsPerMinute;
+
+    /**
+     * Constructor
+     *
+     * @param resolution     the number of ticks per beat of the composition
+     * @param beatsPerMinute the number of beats per minute of the composition
+     */
+    public MidiFileReader(int resolution, int beatsPerMinute) {
+        this.resolution = resolution;
+        this.beatsPerMinute = beatsPerMinute;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Methods                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Reads the notes of a MIDI file into a store, after any notes already
+     * in it.
+     *
+     * @param path  the file to read
+     * @param store the store to add the notes to
+     * @throws IOException if the file cannot be read or is not a MIDI file
+     */
+    public void read(Path path, NoteStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != 0x4D546864) { // "MThd"
+                throw new IOException(path + " is not a MIDI file");
+            }
+            int headerLength = buffer.getInt();
+            buffer.getShort(); // format, every format is read as type 1
+            int numTracks = buffer.getShort() & 0xFFFF;
+            int division = buffer.getShort() & 0xFFFF;
+            if (headerLength < 6 || division == 0) {
+                throw new IOException(path + " is corrupt");
+            }
+            buffer.position(8 + headerLength);
+
+            TrackParser[] parsers = new TrackParser[numTracks];
+            int numParsers = 0;
+            while (numParsers < numTracks && buffer.remaining() >= 8) {
+                int chunkType = buffer.getInt();
+                int chunkLength = buffer.getInt();
+                if (chunkLength < 0 || chunkLength > buffer.remaining()) {
+                    throw new IOException(path + " is corrupt");
+                }
+                if (chunkType == 0x4D54726B) { // "MTrk"
+                    parsers[numParsers++] = new TrackParser(buffer, buffer.position(),
+                            buffer.position() + chunkLength);
+                }
+                buffer.position(buffer.position() + chunkLength);
+            }
+            if (numParsers < numTracks) {
+                // cut short before its last track
+                throw new IOException(path + " is corrupt");
+            }
+
+            // every track is parsed before any error is thrown, so none is
+            // still reading the file once it is closed
+            Arrays.stream(parsers).parallel().forEach(TrackParser::parseKeepingError);
+            for (TrackParser parser : parsers) {
+                if (parser.error != null) {
+                    throw new IOException(path + " is corrupt", parser.error);
+                }
+            }
+            TempoMap tempoMap = new TempoMap(parsers, division,
+                    (double) MICROSECONDS_PER_MINUTE / (this.beatsPerMinute * this.resolution));
+            int[][] programs = collectPrograms(parsers);
+            Arrays.stream(parsers).parallel().forEach(
+                    (parser) -> parser.convert(tempoMap, programs));
+
+            for (TrackParser parser : parsers) {
+                parser.addNotes(store);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException e) {
+            throw new IOException(path + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Collects the program changes of every track by the channel they
+     * change, in tick order.
+     *
+     * @param parsers the parsed tracks
+     * @return for each MIDI channel c, the ticks of its program changes
+     *         at 2c and the programs they change to at 2c + 1; of two at
+     *         the same tick, the later in its track comes last
+     */
+    private static int[][] collectPrograms(TrackParser[] parsers) {
+        int[] counts = new int[16];
+        for (TrackParser parser : parsers) {
+            for (int i = 0; i < parser.numPrograms; i++) {
+                counts[(int) (parser.programs[i] >> 7) & 0xF]++;
+            }
+        }
+        long[][] packed = new long[16][];
+        for (int channel = 0; channel < 16; channel++) {
+            packed[channel] = new long[counts[channel]];
+            counts[channel] = 0;
+        }
+        for (TrackParser parser : parsers) {
+            for (int i = 0; i < parser.numPrograms; i++) {
+                long program = parser.programs[i];
+                int channel = (int) (program >> 7) & 0xF;
+                packed[channel][counts[channel]++] = (program >>> 32) << 32
+                        | ((long) i & 0x1FFFFFF) << 7 | (program & 0x7F);
+            }
+        }
+        // each is packed as its tick, then its position in its track, then
+        // the program, so sorting puts them in order; the ticks are then
+        // kept apart from the programs for binary searching
+        int[][] programs = new int[32][];
+        for (int channel = 0; channel < 16; channel++) {
+            Arrays.sort(packed[channel]);
+            programs[2 * channel] = new int[packed[channel].length];
+            programs[2 * channel + 1] = new int[packed[channel].length];
+            for (int i = 0; i < packed[channel].length; i++) {
+                programs[2 * channel][i] = (int) (packed[channel][i] >>> 32);
+                programs[2 * channel + 1][i] = (int) packed[channel][i] & 0x7F;
+            }
+        }
+        return programs;
+    }
+
+    /**
+     * Parses the events of one track chunk into notes, tempo changes and
+     * program changes, then converts its notes to the composition.
+     */
+    private static class TrackParser {
+
+        /**
+         * The mapped file, only read with absolute gets so the tracks can
+         * share it
+         */
+        private ByteBuffer buffer;
+
+        /**
+         * The position of the next byte of the track, and the position
+         * after its last byte
+         */
+        private int position, end;
+
+        /**
+         * The note sounding on each channel and pitch, as its position in
+         * the note arrays, or -1
+         */
+        private int[] soundingNotes;
+
+        /**
+         * The start tick, end tick, and channel, pitch and velocity
+         * packed as channel << 14 | pitch << 7 | velocity, of each note
+         */
+        private int[] starts, ends, sounds;
+
+        /**
+         * The number of notes parsed
+         */
+        private int numNotes;
+
+        /**
+         * Each tempo change packed as tick << 32 | microseconds per beat
+         */
+        private long[] tempos;
+
+        /**
+         * The number of tempo changes parsed
+         */
+        private int numTempos;
+
+        /**
+         * Each program change packed as tick << 32 | channel << 7 | program
+         */
+        private long[] programs;
+
+        /**
+         * The number of program changes parsed
+         */
+        private int numPrograms;
+
+        /**
+         * What parsing the track failed with, or null
+         */
+        private RuntimeException error;
+
+        /**
+         * The pitch, start, duration, channel and volume in the
+         * composition of each note, once converted
+         */
+        private int[] notePitches, noteStarts, noteDurations, noteChannels, noteVolumes;
+
+        /**
+         * @param buffer the mapped file
+         * @param start  the position of the track's first event
+         * @param end    the position after the track's last byte
+         */
+        TrackParser(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Parses the track, keeping what it fails with in error rather
+         * than throwing it.
+         */
+        void parseKeepingError() {
+            try {
+                parse();
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                this.error = e;
+            }
+        }
+
+        /**
+         * Reads every event of the track, pairing its note events into
+         * notes. Notes still sounding at the end of the track end there.
+         */
+        void parse() {
+            this.soundingNotes = new int[16 * 128];
+            Arrays.fill(this.soundingNotes, -1);
+            this.starts = new int[64];
+            this.ends = new int[64];
+            this.sounds = new int[64];
+            this.tempos = new long[4];
+            this.programs = new long[4];
+
+            long tick = 0;
+            int runningStatus = 0;
+            while (this.position < this.end) {
+                tick += readVariableLength();
+                if (tick > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Track is too long");
+                }
+                int status = readByte();
+                int data1;
+                if (status < 0x80) {
+                    if (runningStatus == 0) {
+                        throw new IllegalArgumentException("Data byte without a status");
+                    }
+                    data1 = status;
+                    status = runningStatus;
+                } else if (status < 0xF0) {
+                    runningStatus = status;
+                    data1 = readByte();
+                } else if (status == 0xFF) {
+                    int type = readByte();
+                    int length = readVariableLength();
+                    if (type == 0x2F) {
+                        break;
+                    }
+                    if (type == 0x51 && length == 3) {
+                        addTempo((int) tick, readByte() << 16 | readByte() << 8 | readByte());
+                    } else {
+                        skip(length);
+                    }
+                    continue;
+                } else if (status == 0xF0 || status == 0xF7) {
+                    skip(readVariableLength());
+                    continue;
+                } else {
+                    throw new IllegalArgumentException("Unexpected status " + status);
+                }
+
+                int channel = status & 0x0F;
+                switch (status & 0xF0) {
+                    case 0x80:
+                        readByte();
+                        endNote((int) tick, channel, data1);
+                        break;
+                    case 0x90:
+                        int velocity = readByte();
+                        endNote((int) tick, channel, data1);
+                        if (velocity > 0) {
+                            startNote((int) tick, channel, data1, velocity);
+                        }
+                        break;
+                    case 0xC0:
+                        addProgram((int) tick, channel, data1);
+                        break;
+                    case 0xD0:
+                        break;
+                    default:
+                        readByte();
+                        break;
+                }
+            }
+            for (int i = 0; i < this.soundingNotes.length; i++) {
+                if (this.soundingNotes[i] >= 0) {
+                    this.ends[this.soundingNotes[i]] = (int) tick;
+                }
+            }
+            this.soundingNotes = null;
+        }
+
+        /**
+         * Converts the track's notes to the composition's ticks and
+         * channels.
+         *
+         * @param tempoMap turns the file's ticks into the composition's
+         * @param programs the program changes of each MIDI channel
+         */
+        void convert(TempoMap tempoMap, int[][] programs) {
+            this.notePitches = new int[this.numNotes];
+            this.noteStarts = new int[this.numNotes];
+            this.noteDurations = new int[this.numNotes];
+            this.noteChannels = new int[this.numNotes];
+            this.noteVolumes = new int[this.numNotes];
+            for (int i = 0; i < this.numNotes; i++) {
+                int sound = this.sounds[i];
+                int channel = sound >> 14;
+                int start = tempoMap.toCompositionTick(this.starts[i]);
+                int stop = tempoMap.toCompositionTick(this.ends[i]);
+                this.notePitches[i] = (sound >> 7) & 0x7F;
+                this.noteStarts[i] = start;
+                this.noteDurations[i] = Math.max(1, stop - start);
+                this.noteVolumes[i] = sound & 0x7F;
+
+                int[] ticks = programs[2 * channel];
+                int found = Arrays.binarySearch(ticks, this.starts[i]);
+                // the last program change at or before the note's start
+                int last = found >= 0 ? found : -found - 2;
+                while (last + 1 < ticks.length && ticks[last + 1] == this.starts[i]) {
+                    last++;
+                }
+                int program = last >= 0 ? programs[2 * channel + 1][last] : 0;
+                this.noteChannels[i] = Instruments.getClosestChannel(program);
+            }
+            this.starts = null;
+            this.ends = null;
+            this.sounds = null;
+        }
+
+        /**
+         * Adds the converted notes to a store.
+         *
+         * @param store the store to add the notes to
+         */
+        void addNotes(NoteStore store) {
+            for (int i = 0; i < this.numNotes; i++) {
+                store.add(this.notePitches[i], this.noteStarts[i], this.noteDurations[i],
+                        this.noteChannels[i], this.noteChannels[i], this.noteVolumes[i]);
+            }
+        }
+
+        /**
+         * Starts a note.
+         *
+         * @param tick     the tick it starts at
+         * @param channel  the MIDI channel
+         * @param pitch    the pitch
+         * @param velocity the velocity
+         */
+        private void startNote(int tick, int channel, int pitch, int velocity) {
+            if (this.numNotes == this.starts.length) {
+                int length = 2 * this.numNotes;
+                this.starts = Arrays.copyOf(this.starts, length);
+                this.ends = Arrays.copyOf(this.ends, length);
+                this.sounds = Arrays.copyOf(this.sounds, length);
+            }
+            this.starts[this.numNotes] = tick;
+            this.sounds[this.numNotes] = channel << 14 | (pitch & 0x7F) << 7 | velocity;
+            this.soundingNotes[channel << 7 | (pitch & 0x7F)] = this.numNotes;
+            this.numNotes++;
+        }
+
+        /**
+         * Ends the note sounding on a channel and pitch, if there is one.
+         *
+         * @param tick    the tick it ends at
+         * @param channel the MIDI channel
+         * @param pitch   the pitch
+         */
+        private void endNote(int tick, int channel, int pitch) {
+            int key = channel << 7 | (pitch & 0x7F);
+            if (this.soundingNotes[key] >= 0) {
+                this.ends[this.soundingNotes[key]] = tick;
+                this.soundingNotes[key] = -1;
+            }
+        }
+
+        /**
+         * @param tick                the tick of the tempo change
+         * @param microsecondsPerBeat the new tempo
+         */
+        private void addTempo(int tick, int microsecondsPerBeat) {
+            if (this.numTempos == this.tempos.length) {
+                this.tempos = Arrays.copyOf(this.tempos, 2 * this.numTempos);
+            }
+            this.tempos[this.numTempos++] = (long) tick << 32 | microsecondsPerBeat;
+        }
+
+        /**
+         * @param tick    the tick of the program change
+         * @param channel the MIDI channel
+         * @param program the new program
+         */
+        private void addProgram(int tick, int channel, int program) {
+            if (this.numPrograms == this.programs.length) {
+                this.programs = Arrays.copyOf(this.programs, 2 * this.numPrograms);
+            }
+            this.programs[this.numPrograms++] = (long) tick << 32 | channel << 7
+                    | (program & 0x7F);
+        }
+
+        /**
+         * @return the next byte of the track
+         */
+        private int readByte() {
+            if (this.position >= this.end) {
+                throw new IndexOutOfBoundsException("Track ends in an event");
+            }
+            return this.buffer.get(this.position++) & 0xFF;
+        }
+
+        /**
+         * Reads a variable length quantity, seven bits per byte with the
+         * high bit set on every byte but the last.
+         *
+         * @return the value read
+         */
+        private int readVariableLength() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = readByte();
+                value = value << 7 | (b & 0x7F);
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Variable length quantity is too long");
+        }
+
+        /**
+         * @param length the number of bytes to skip
+         */
+        private void skip(int length) {
+            if (length > this.end - this.position) {
+                throw new IndexOutOfBoundsException("Track ends in an event");
+            }
+            this.position += length;
+        }
+    }
+
+    /**
+     * Turns ticks of a file into ticks of the composition, through the
+     * tempo changes of all its tracks.
+     */
+    private static class TempoMap {
+
+        /**
+         * The tick each tempo starts at, from the first
+         */
+        private int[] ticks;
+
+        /**
+         * The microseconds from the start of the file to each tempo
+         */
+        private double[] times;
+
+        /**
+         * The microseconds per tick of each tempo
+         */
+        private double[] tickLengths;
+
+        /**
+         * The microseconds per tick of the composition
+         */
+        private double compositionTickLength;
+
+        /**
+         * @param parsers               the parsed tracks
+         * @param division              the division of the file's header
+         * @param compositionTickLength the microseconds per tick of the
+         *                              composition
+         */
+        TempoMap(TrackParser[] parsers, int division, double compositionTickLength) {
+            this.compositionTickLength = compositionTickLength;
+            if ((division & 0x8000) != 0) {
+                // SMPTE time: a fixed number of ticks per frame and frames
+                // per second, which tempo changes do not affect
+                int framesPerSecond = -(byte) (division >> 8);
+                int ticksPerFrame = division & 0xFF;
+                if (framesPerSecond <= 0 || ticksPerFrame == 0) {
+                    throw new IllegalArgumentException("Invalid division");
+                }
+                this.ticks = new int[]{0};
+                this.times = new double[]{0};
+                this.tickLengths = new double[]{1e6 / (framesPerSecond * ticksPerFrame)};
+                return;
+            }
+
+            int numTempos = 0;
+            for (TrackParser parser : parsers) {
+                numTempos += parser.numTempos;
+            }
+            long[] tempos = new long[numTempos];
+            int i = 0;
+            for (TrackParser parser : parsers) {
+                System.arraycopy(parser.tempos, 0, tempos, i, parser.numTempos);
+                i += parser.numTempos;
+            }
+            Arrays.sort(tempos);
+            if (numTempos == 0 || tempos[0] >>> 32 > 0) {
+                long[] withDefault = new long[numTempos + 1];
+                withDefault[0] = DEFAULT_TEMPO;
+                System.arraycopy(tempos, 0, withDefault, 1, numTempos);
+                tempos = withDefault;
+            }
+            this.ticks = new int[tempos.length];
+            this.times = new double[tempos.length];
+            this.tickLengths = new double[tempos.length];
+            for (i = 0; i < tempos.length; i++) {
+                this.ticks[i] = (int) (tempos[i] >>> 32);
+                this.tickLengths[i] = (double) (tempos[i] & 0xFFFFFF) / division;
+                if (i > 0) {
+                    this.times[i] = this.times[i - 1]
+                            + (this.ticks[i] - this.ticks[i - 1]) * this.tickLengths[i - 1];
+                }
+            }
+        }
+
+        /**
+         * @param tick a tick of the file
+         * @return the tick of the composition at the same time
+         */
+        int toCompositionTick(int tick) {
+            int found = Arrays.binarySearch(this.ticks, tick);
+            int tempo = found >= 0 ? found : -found - 2;
+            while (tempo + 1 < this.ticks.length && this.ticks[tempo + 1] == tick) {
+                tempo++;
+            }
+            double time = this.times[tempo] + (tick - this.ticks[tempo]) * this.tickLengths[tempo];
+            return (int) Math.min(Integer.MAX_VALUE / 2,
+                    Math.round(time / this.compositionTickLength));
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * File: MidiFileWriter.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class writes the notes of a NoteStore to a Standard MIDI File.
+ * The file is type 1: a first track holding the tempo, then one track
+ * per channel that has notes. Events are written straight from the
+ * store through a buffered FileChannel, without building a Sequence.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class MidiFileWriter {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The size of the buffer events are collected in before being written.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The most bytes a single event can take: a four byte delta time,
+     * a status byte and up to six data bytes.
+     */
+    private static final int MAX_EVENT_SIZE = 11;
+
+    /**
+     * The number of microseconds in a minute.
+     */
+    private static final int MICROSECONDS_PER_MINUTE = 60000000;
+
+    /**
+     * The number of ticks per beat
+     */
+    private int resolution;
+
+    /**
+     * The number of beats per minute
+     */
+    private int beatsPerMinute;
+
+    /**
+     * The channel the file is written to
+     */
+    private FileChannel channel;
+
+    /**
+     * Holds the bytes waiting to be written
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The number of bytes written to the channel so far
+     */
+    private long position;
+
+    /**
+     * The status byte of the last event written in the current track
+     */
+    private int runningStatus;
+
+    /**
+     * The tick of the last event written in the current track
+     */
+    private long lastTick;
+
+    /**
+     * Constructor
+     *
+     * @param resolution     the number of ticks per beat
+     * @param beatsPerMinute the number of beats per minute
+     */
+    public MidiFileWriter(int resolution, int beatsPerMinute) {
+        this.resolution = resolution;
+        this.beatsPerMinute = beatsPerMinute;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Methods                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Writes the notes of a store to a MIDI file, replacing the file if
+     * it already exists.
+     *
+     * @param store the notes to write
+     * @param path  the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public void write(NoteStore store, Path path) throws IOException {
+        int[][] notesByChannel = groupByChannel(store);
+        int numTracks = 1;
+        for (int[] notes : notesByChannel) {
+            if (notes.length > 0) {
+                numTracks++;
+            }
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.channel = fileChannel;
+            this.position = 0;
+            this.buffer.clear();
+
+            this.buffer.putInt(0x4D546864); // "MThd"
+            this.buffer.putInt(6);
+            this.buffer.putShort((short) 1);
+            this.buffer.putShort((short) numTracks);
+            this.buffer.putShort((short) this.resolution);
+
+            long lengthPosition = startTrack();
+            writeTempo();
+            endTrack(lengthPosition);
+
+            for (int channelNumber = 0; channelNumber < notesByChannel.length;
+                 channelNumber++) {
+                if (notesByChannel[channelNumber].length > 0) {
+                    lengthPosition = startTrack();
+                    writeNotes(store, notesByChannel[channelNumber], channelNumber);
+                    endTrack(lengthPosition);
+                }
+            }
+            flush();
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Collects the ids of the notes on each channel. Notes that cannot be
+     * played, such as those dragged off the sheet, are left out rather
+     * than written with a wrong pitch. So are notes with no duration,
+     * whose NOTE_OFF would be written before their NOTE_ON and leave them
+     * sounding.
+     *
+     * @param store the notes to group
+     * @return the note ids on each channel
+     */
+    private static int[][] groupByChannel(NoteStore store) {
+        int idLimit = store.getIdLimit();
+        int[] counts = new int[16];
+        boolean[] isWritten = new boolean[idLimit];
+        for (int id = 0; id < idLimit; id++) {
+            isWritten[id] = store.isLive(id) && store.getDuration(id) > 0
+                    && MidiPlayer.isPlayable(store.getPitch(id),
+                    store.getVolume(id), store.getStartTick(id), store.getDuration(id),
+                    store.getChannel(id), store.getTrackIndex(id));
+            if (isWritten[id]) {
+                counts[store.getChannel(id)]++;
+            }
+        }
+        int[][] notesByChannel = new int[16][];
+        for (int channelNumber = 0; channelNumber < 16; channelNumber++) {
+            notesByChannel[channelNumber] = new int[counts[channelNumber]];
+            counts[channelNumber] = 0;
+        }
+        for (int id = 0; id < idLimit; id++) {
+            if (isWritten[id]) {
+                int channelNumber = store.getChannel(id);
+                notesByChannel[channelNumber][counts[channelNumber]++] = id;
+            }
+        }
+        return notesByChannel;
+    }
+
+    /**
+     * Writes the tempo of the composition as a set tempo meta event.
+     */
+    private void writeTempo() throws IOException {
+        int microsecondsPerBeat = MICROSECONDS_PER_MINUTE / this.beatsPerMinute;
+        writeDeltaTime(0);
+        this.buffer.put((byte) 0xFF).put((byte) 0x51).put((byte) 3);
+        this.buffer.put((byte) (microsecondsPerBeat >> 16));
+        this.buffer.put((byte) (microsecondsPerBeat >> 8));
+        this.buffer.put((byte) microsecondsPerBeat);
+    }
+
+    /**
+     * Writes the program change and the notes of one channel in tick order.
+     * NOTE_OFF is written as NOTE_ON with no velocity so every note event
+     * on the channel can share one running status.
+     *
+     * @param store         the store holding the notes
+     * @param ids           the ids of the channel's notes
+     * @param channelNumber the channel the notes are played on
+     */
+    private void writeNotes(NoteStore store, int[] ids, int channelNumber)
+            throws IOException {
+        writeEvent(0, 0xC0 | channelNumber, Instruments.getProgram(channelNumber), -1);
+
+        // pack each tick with its note id so sorting needs no objects
+        long[] starts = new long[ids.length];
+        long[] stops = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            long start = store.getStartTick(id);
+            starts[i] = (start << 32) | id;
+            stops[i] = ((start + store.getDuration(id)) << 32) | id;
+        }
+        Arrays.sort(starts);
+        Arrays.sort(stops);
+
+        int noteOn = 0x90 | channelNumber;
+        int nextStart = 0;
+        int nextStop = 0;
+        while (nextStart < starts.length || nextStop < stops.length) {
+            // at equal ticks notes are stopped before new ones start
+            if (nextStart == starts.length ||
+                    (nextStop < stops.length && stops[nextStop] >> 32 <= starts[nextStart] >> 32)) {
+                int id = (int) stops[nextStop++];
+                writeEvent(stops[nextStop - 1] >> 32, noteOn, store.getPitch(id), 0);
+            } else {
+                int id = (int) starts[nextStart++];
+                writeEvent(starts[nextStart - 1] >> 32, noteOn, store.getPitch(id),
+                        store.getVolume(id));
+            }
+        }
+    }
+
+    /**
+     * Writes a channel event, leaving out the status byte when it is the
+     * same as the one before.
+     *
+     * @param tick   the tick of the event
+     * @param status the status byte
+     * @param data1  the first data byte, from 0 to 127
+     * @param data2  the second data byte, from 0 to 127, or -1 if the event
+     *               has only one
+     */
+    private void writeEvent(long tick, int status, int data1, int data2)
+            throws IOException {
+        writeDeltaTime(Math.max(0, tick - this.lastTick));
+        this.lastTick = Math.max(tick, this.lastTick);
+        if (status != this.runningStatus) {
+            this.buffer.put((byte) status);
+            this.runningStatus = status;
+        }
+        this.buffer.put((byte) data1);
+        if (data2 >= 0) {
+            this.buffer.put((byte) data2);
+        }
+    }
+
+    /**
+     * Writes a delta time as a variable length quantity, seven bits per
+     * byte with the high bit set on every byte but the last.
+     *
+     * @param deltaTime the number of ticks since the last event
+     */
+    private void writeDeltaTime(long deltaTime) throws IOException {
+        if (this.buffer.remaining() < MAX_EVENT_SIZE) {
+            flush();
+        }
+        int value = (int) Math.min(deltaTime, 0x0FFFFFFF);
+        if (value >= 1 << 21) {
+            this.buffer.put((byte) (0x80 | ((value >> 21) & 0x7F)));
+        }
+        if (value >= 1 << 14) {
+            this.buffer.put((byte) (0x80 | ((value >> 14) & 0x7F)));
+        }
+        if (value >= 1 << 7) {
+            this.buffer.put((byte) (0x80 | ((value >> 7) & 0x7F)));
+        }
+        this.buffer.put((byte) (value & 0x7F));
+    }
+
+    /**
+     * Writes the header of a track chunk with a placeholder length.
+     *
+     * @return the position of the length in the file
+     */
+    private long startTrack() throws IOException {
+        if (this.buffer.remaining() < 8) {
+            flush();
+        }
+        this.buffer.putInt(0x4D54726B); // "MTrk"
+        long lengthPosition = this.position + this.buffer.position();
+        this.buffer.putInt(0);
+        this.runningStatus = 0;
+        this.lastTick = 0;
+        return lengthPosition;
+    }
+
+    /**
+     * Writes the end of track meta event and fills in the track's length.
+     *
+     * @param lengthPosition the position of the length in the file
+     */
+    private void endTrack(long lengthPosition) throws IOException {
+        writeDeltaTime(0);
+        this.buffer.put((byte) 0xFF).put((byte) 0x2F).put((byte) 0);
+        flush();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        length.putInt(0, (int) (this.position - lengthPosition - 4));
+        while (length.hasRemaining()) {
+            this.channel.write(length, lengthPosition + length.position());
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the file.
+     */
+    private void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.position += this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+}
@@ -9,25 +9,89 @@
 package proj4ChanceLinRemondiSolis;
 
 import javax.sound.midi.*;
+import javax.sound.sampled.SourceDataLine;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class has a simple interface for playing MIDI sounds.
  *
+ * The sequence can be edited as soon as the player is created. The
+ * sequencer and synthesizer are opened, and the instruments of the
+ * channels loaded, on a background thread; playing waits for them.
+ *
  * @author Dale Skrien
  */
-public class MidiPlayer {
+public class MidiPlayer implements Playhead {
     private static final int NUM_TRACKS = 8;
 
     /**
-     * the sequencer that stores Midi events and plays them when requested
+     * the output latency asked of the software synthesizer, in
+     * microseconds, so notes sound soon after they are sent
+     */
+    private static final long SYNTHESIZER_LATENCY = 10000;
+
+    /**
+     * the number of microseconds in a minute
+     */
+    private static final int MICROSECONDS_PER_MINUTE = 60000000;
+
+    /**
+     * the sequencer that plays the Midi events when requested, set once
+     * the Midi devices are ready. Set and given its sequence while
+     * holding sequenceLock.
      */
     private Sequencer sequencer;
 
+    /**
+     * the synthesizer the sequencer plays through, set once the Midi
+     * devices are ready if there is a sound device
+     */
+    private Synthesizer synthesizer;
+
+    /**
+     * the sequence that stores the Midi events
+     */
+    private volatile Sequence sequence;
+
+    /**
+     * held while the sequence is replaced or handed to the sequencer, so
+     * the sequencer always ends up with the latest sequence
+     */
+    private final Object sequenceLock = new Object();
+
+    /**
+     * the tracks of the sequence, kept since Sequence.getTracks copies them
+     */
+    private Track[] tracks;
+
+    /**
+     * completed once the sequencer and synthesizer have been opened
+     */
+    private CompletableFuture<Void> ready;
+
+    /**
+     * whether the sequence is to be played once the sequencer is ready;
+     * cleared by stop so a pending play is cancelled
+     */
+    private volatile boolean isPlayRequested;
+
     /**
      * the number of beats per minute that is used when a sound is played
      */
     private int beatsPerMinute;
 
+    /**
+     * how long after the sequencer sends an event it is heard, in
+     * microseconds
+     */
+    private long latency;
+
     /**
      * Creates a new proj3RinkerSolisSalernoPatrizio.MidiPlayer with the given parameters.
      *
@@ -37,24 +101,110 @@ public class MidiPlayer {
     public MidiPlayer(int resolution, int beatsPerMinute) {
         this.beatsPerMinute = beatsPerMinute;
         try {
-            sequencer = MidiSystem.getSequencer(); // factory
+            sequence = new Sequence(Sequence.PPQ, resolution, NUM_TRACKS);
+            tracks = sequence.getTracks();
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+        ready = CompletableFuture.runAsync(this::openDevices).exceptionally((error) -> {
+            // nothing waiting on the devices would report it otherwise
+            error.printStackTrace();
+            return null;
+        });
+    }
+
+    /**
+     * opens the sequencer and the synthesizer and loads the instruments
+     * of all the channels, so the first note played does not wait for
+     * them. Runs on a background thread.
+     */
+    private void openDevices() {
+        try {
+            Sequencer sequencer = MidiSystem.getSequencer(false); // factory
             sequencer.open();
-            Sequence sequence = new Sequence(Sequence.PPQ,
-                    resolution, NUM_TRACKS);
-            sequencer.setSequence(sequence);
             sequencer.setTempoInBPM(beatsPerMinute);
+            // whatever sequence is current now; later ones are set directly
+            synchronized (sequenceLock) {
+                sequencer.setSequence(sequence);
+                this.sequencer = sequencer;
+            }
         } catch (InvalidMidiDataException e) {
             e.printStackTrace();
+            return;
         } catch (MidiUnavailableException e) {
             e.printStackTrace();
+            return;
         }
+        // without a sound device the sequence can still be built, just not heard
+        try {
+            Synthesizer synthesizer = MidiSystem.getSynthesizer();
+            openSynthesizer(synthesizer);
+            Soundbank soundbank = synthesizer.getDefaultSoundbank();
+            if (soundbank != null) {
+                for (int channel = 0; channel < Instruments.NUM_CHANNELS; channel++) {
+                    Instrument instrument = soundbank.getInstrument(
+                            new Patch(0, Instruments.getProgram(channel)));
+                    if (instrument != null) {
+                        synthesizer.loadInstrument(instrument);
+                    }
+                }
+            }
+            latency = Math.max(0, synthesizer.getLatency());
+            sequencer.getTransmitter().setReceiver(synthesizer.getReceiver());
+            this.synthesizer = synthesizer;
+        } catch (MidiUnavailableException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * opens a synthesizer, asking the software synthesizer for a short
+     * latency. Its interface for that, com.sun.media.sound.AudioSynthesizer,
+     * is looked up by name so the player compiles without it; it can only
+     * be called when the program is run with
+     * --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED.
+     * Otherwise the synthesizer is opened with its default latency.
+     *
+     * @param synthesizer the synthesizer to open
+     * @throws MidiUnavailableException if it cannot be opened
+     */
+    private static void openSynthesizer(Synthesizer synthesizer)
+            throws MidiUnavailableException {
+        try {
+            Class<?> audioSynthesizer = Class.forName("com.sun.media.sound.AudioSynthesizer");
+            if (audioSynthesizer.isInstance(synthesizer)) {
+                audioSynthesizer.getMethod("open", SourceDataLine.class, Map.class)
+                        .invoke(synthesizer, null,
+                                Collections.singletonMap("latency", SYNTHESIZER_LATENCY));
+                return;
+            }
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof MidiUnavailableException) {
+                throw (MidiUnavailableException) e.getCause();
+            }
+            e.printStackTrace();
+        } catch (ReflectiveOperationException e) {
+            // the package is not exported to this program, or is missing
+        }
+        synthesizer.open();
+    }
+
+    /**
+     * @return the number of events in each track of the sequence
+     */
+    public int[] getTrackSizes() {
+        int[] sizes = new int[tracks.length];
+        for (int i = 0; i < tracks.length; i++) {
+            sizes[i] = tracks[i].size();
+        }
+        return sizes;
     }
 
     /**
      * @return the number of ticks per beat
      */
     public int getResolution() {
-        return sequencer.getSequence().getResolution();
+        return sequence.getResolution();
     }
 
     /**
@@ -69,17 +219,37 @@ public class MidiPlayer {
      * @param startTick  the starting time of the event in ticks
      * @param trackIndex the index of the track to which the new event will be
      *                   added
+     * @return the event added, or null if the message was invalid
      */
-    public void addMidiEvent(int status, int data1, int data2, int startTick,
-                             int trackIndex) {
-        Track track = sequencer.getSequence().getTracks()[trackIndex];
+    public MidiEvent addMidiEvent(int status, int data1, int data2, int startTick,
+                                  int trackIndex) {
+        Track track = tracks[trackIndex];
         ShortMessage message = new ShortMessage();
         try {
             message.setMessage(status, data1, data2);
             MidiEvent event = new MidiEvent(message, startTick);
             track.add(event);
+            return event;
         } catch (InvalidMidiDataException e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * removes a MidiEvent previously added to the current composition.
+     * The end of the track is pulled back to the last remaining event so
+     * the sequencer does not keep running after the composition ends.
+     *
+     * @param event      the event to remove
+     * @param trackIndex the index of the track the event was added to
+     */
+    public void removeMidiEvent(MidiEvent event, int trackIndex) {
+        Track track = tracks[trackIndex];
+        if (track.remove(event) && track.size() > 1) {
+            // the end of track meta event is always the last one
+            MidiEvent endOfTrack = track.get(track.size() - 1);
+            endOfTrack.setTick(track.get(track.size() - 2).getTick());
         }
     }
 
@@ -94,40 +264,404 @@ public class MidiPlayer {
      *                   corresponds to a different instrument.  The default
      *                   instrument for all channels is the grand piano.
      * @param trackIndex an integer from 0 to 7 giving the track for the note
+     * @return the NOTE_ON and NOTE_OFF events added for the note, both
+     *         null if the note cannot be played and was not added
+     */
+    public MidiEvent[] addNote(int pitch, int volume, int startTick, int duration,
+                               int channel, int trackIndex) {
+        if (!isPlayable(pitch, volume, startTick, duration, channel, trackIndex)) {
+            return new MidiEvent[2];
+        }
+        MidiEvent noteOn = addMidiEvent(ShortMessage.NOTE_ON + channel, pitch,
+                volume, startTick, trackIndex);
+        MidiEvent noteOff = addMidiEvent(ShortMessage.NOTE_OFF + channel, pitch,
+                volume, startTick + duration, trackIndex);
+        return new MidiEvent[]{noteOn, noteOff};
+    }
+
+    /**
+     * checks whether a note can be played. A note dragged off the sheet,
+     * above or below it or before its start, cannot.
+     *
+     * @param pitch      the pitch of the note
+     * @param volume     the volume of the note
+     * @param startTick  the tick the note starts at
+     * @param duration   the number of ticks the note plays
+     * @param channel    the channel of the note
+     * @param trackIndex the track of the note
+     * @return whether every value of the note is in range
+     */
+    public static boolean isPlayable(int pitch, int volume, int startTick, int duration,
+                                     int channel, int trackIndex) {
+        return pitch >= 0 && pitch <= 127 && volume >= 0 && volume <= 127
+                && channel >= 0 && channel <= 15 && startTick >= 0
+                && duration >= 0 && startTick + duration >= 0
+                && trackIndex >= 0 && trackIndex < NUM_TRACKS;
+    }
+
+    /**
+     * makes a new sequence holding the tempo, the program change of
+     * every channel and the given notes. The sequence being played is not
+     * touched, so the new one can be built on any thread, even while the
+     * composition is played or edited, and is played once it is given to
+     * setSequence. With the tempo stored in it, the sequence also plays
+     * the same anywhere else, such as when it is rendered to a file.
+     *
+     * @param count         the number of notes to add
+     * @param pitches       the pitch of each note, from 0 to 127
+     * @param volumes       the volume of each note, from 0 to 127
+     * @param startTicks    the tick each note starts at
+     * @param durations     the number of ticks each note plays
+     * @param channels      the channel of each note, from 0 to 15
+     * @param trackIndices  the track of each note, from 0 to 7
+     * @param noteOnEvents  if not null, receives the NOTE_ON event of each
+     *                      note, null for notes left out
+     * @param noteOffEvents if not null, receives the NOTE_OFF event of each
+     *                      note, null for notes left out
+     * @return the new sequence
+     * @throws InvalidMidiDataException if the sequence cannot be made
+     */
+    public Sequence buildSequence(int count, int[] pitches, int[] volumes,
+                                  int[] startTicks, int[] durations, int[] channels,
+                                  int[] trackIndices, MidiEvent[] noteOnEvents,
+                                  MidiEvent[] noteOffEvents)
+            throws InvalidMidiDataException {
+        return buildSequence(getResolution(), this.beatsPerMinute, count, pitches, volumes,
+                startTicks, durations, channels, trackIndices, noteOnEvents, noteOffEvents);
+    }
+
+    /**
+     * makes a new sequence as described by the buildSequence method of
+     * the same arguments, for a given resolution and tempo.
+     */
+    private static Sequence buildSequence(int resolution, int beatsPerMinute, int count,
+                                          int[] pitches, int[] volumes, int[] startTicks,
+                                          int[] durations, int[] channels,
+                                          int[] trackIndices, MidiEvent[] noteOnEvents,
+                                          MidiEvent[] noteOffEvents)
+            throws InvalidMidiDataException {
+        Sequence newSequence = new Sequence(Sequence.PPQ, resolution, NUM_TRACKS);
+        Track[] newTracks = newSequence.getTracks();
+        int microsecondsPerBeat = MICROSECONDS_PER_MINUTE / beatsPerMinute;
+        byte[] tempo = {(byte) (microsecondsPerBeat >> 16),
+                (byte) (microsecondsPerBeat >> 8), (byte) microsecondsPerBeat};
+        newTracks[0].add(new MidiEvent(new MetaMessage(0x51, tempo, tempo.length), 0));
+        for (int channel = 0; channel < Instruments.NUM_CHANNELS; channel++) {
+            ShortMessage programChange = new ShortMessage(ShortMessage.PROGRAM_CHANGE + channel,
+                    Instruments.getProgram(channel), 0);
+            newTracks[0].add(new MidiEvent(programChange, 0));
+        }
+        addNotes(newTracks, count, pitches, volumes, startTicks, durations, channels,
+                trackIndices, noteOnEvents, noteOffEvents);
+        return newSequence;
+    }
+
+    /**
+     * makes a new sequence holding the tempo, the program change of
+     * every channel and every note of a store that can be played.
+     *
+     * @param store the notes to add
+     * @return the new sequence
+     * @throws InvalidMidiDataException if the sequence cannot be made
+     */
+    public Sequence buildSequence(NoteStore store) throws InvalidMidiDataException {
+        return buildSequence(store, getResolution(), this.beatsPerMinute);
+    }
+
+    /**
+     * makes a new sequence holding the tempo, the program change of
+     * every channel and every note of a store that can be played, without
+     * a player, such as to render the notes to a file.
+     *
+     * @param store          the notes to add
+     * @param resolution     the number of ticks per beat
+     * @param beatsPerMinute the number of beats per minute
+     * @return the new sequence
+     * @throws InvalidMidiDataException if the sequence cannot be made
      */
-    public void addNote(int pitch, int volume, int startTick, int duration,
-                        int channel, int trackIndex) {
-        addMidiEvent(ShortMessage.NOTE_ON + channel, pitch, volume,
-                startTick, trackIndex);
-        addMidiEvent(ShortMessage.NOTE_OFF + channel, pitch, volume,
-                startTick + duration, trackIndex);
+    public static Sequence buildSequence(NoteStore store, int resolution, int beatsPerMinute)
+            throws InvalidMidiDataException {
+        int count = store.size();
+        int[] pitches = new int[count];
+        int[] volumes = new int[count];
+        int[] startTicks = new int[count];
+        int[] durations = new int[count];
+        int[] channels = new int[count];
+        int[] trackIndices = new int[count];
+        int i = 0;
+        int idLimit = store.getIdLimit();
+        for (int id = 0; id < idLimit; id++) {
+            if (store.isLive(id)) {
+                pitches[i] = store.getPitch(id);
+                volumes[i] = store.getVolume(id);
+                startTicks[i] = store.getStartTick(id);
+                durations[i] = store.getDuration(id);
+                channels[i] = store.getChannel(id);
+                trackIndices[i] = store.getTrackIndex(id);
+                i++;
+            }
+        }
+        return buildSequence(resolution, beatsPerMinute, i, pitches, volumes, startTicks,
+                durations, channels, trackIndices, null, null);
+    }
+
+    /**
+     * adds many notes to some tracks at once. The notes are given as
+     * parallel arrays, the i-th element of each describing the i-th note.
+     * Notes that cannot be played are left out. The events of
+     * each track are then sorted by tick, created and added to the track
+     * on their own thread of a fork-join pool. They are added in tick
+     * order, so a track never has to move an event to insert another.
+     * At the same tick, notes are stopped before others start.
+     *
+     * @param tracks        the tracks of a new sequence, which no other
+     *                      thread uses yet
+     * @param count         the number of notes to add
+     * @param pitches       the pitch of each note, from 0 to 127
+     * @param volumes       the volume of each note, from 0 to 127
+     * @param startTicks    the tick each note starts at
+     * @param durations     the number of ticks each note plays
+     * @param channels      the channel of each note, from 0 to 15
+     * @param trackIndices  the track of each note, from 0 to 7
+     * @param noteOnEvents  if not null, receives the NOTE_ON event of each
+     *                      note, null for notes left out
+     * @param noteOffEvents if not null, receives the NOTE_OFF event of each
+     *                      note, null for notes left out
+     */
+    private static void addNotes(Track[] tracks, int count, int[] pitches, int[] volumes,
+                                 int[] startTicks, int[] durations, int[] channels,
+                                 int[] trackIndices, MidiEvent[] noteOnEvents,
+                                 MidiEvent[] noteOffEvents) {
+        boolean[] isPlayable = new boolean[count];
+        int[] trackStarts = new int[NUM_TRACKS + 1];
+        for (int i = 0; i < count; i++) {
+            isPlayable[i] = isPlayable(pitches[i], volumes[i], startTicks[i], durations[i],
+                    channels[i], trackIndices[i]);
+            if (isPlayable[i]) {
+                trackStarts[trackIndices[i] + 1] += 2;
+            }
+        }
+        for (int track = 0; track < NUM_TRACKS; track++) {
+            trackStarts[track + 1] += trackStarts[track];
+        }
+
+        // each event is packed as its tick, then 0 for NOTE_OFF or 1 for
+        // NOTE_ON, then the note's index, so sorting needs no objects
+        long[] packedEvents = new long[trackStarts[NUM_TRACKS]];
+        int[] nextEvents = Arrays.copyOf(trackStarts, NUM_TRACKS);
+        for (int i = 0; i < count; i++) {
+            if (!isPlayable[i]) {
+                continue;
+            }
+            int track = trackIndices[i];
+            packedEvents[nextEvents[track]++] = ((long) startTicks[i] << 32) | (1L << 31) | i;
+            packedEvents[nextEvents[track]++] = ((long) (startTicks[i] + durations[i]) << 32) | i;
+        }
+
+        MidiEvent[] events = new MidiEvent[packedEvents.length];
+        EventBuilder[] builders = new EventBuilder[NUM_TRACKS];
+        for (int track = 0; track < NUM_TRACKS; track++) {
+            builders[track] = new EventBuilder(tracks[track], packedEvents, events,
+                    trackStarts[track], trackStarts[track + 1], pitches, volumes, channels,
+                    noteOnEvents, noteOffEvents);
+        }
+        ForkJoinTask.invokeAll(builders);
+    }
+
+    /**
+     * Sorts the packed events of one track, creates their MidiEvents and
+     * adds them to the track.
+     */
+    private static class EventBuilder extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private Track track;
+        private long[] packedEvents;
+        private MidiEvent[] events;
+        private int start, end;
+        private int[] pitches, volumes, channels;
+        private MidiEvent[] noteOnEvents, noteOffEvents;
+
+        /**
+         * @param track         the track to add the events to
+         * @param packedEvents  the packed events of all tracks
+         * @param events        receives the created events, at the same
+         *                      positions as the sorted packed events
+         * @param start         the position of the track's first event
+         * @param end           the position after the track's last event
+         * @param pitches       the pitch of each note
+         * @param volumes       the volume of each note
+         * @param channels      the channel of each note
+         * @param noteOnEvents  if not null, receives the NOTE_ON event of each note
+         * @param noteOffEvents if not null, receives the NOTE_OFF event of each note
+         */
+        EventBuilder(Track track, long[] packedEvents, MidiEvent[] events, int start,
+                     int end, int[] pitches, int[] volumes, int[] channels,
+                     MidiEvent[] noteOnEvents, MidiEvent[] noteOffEvents) {
+            this.track = track;
+            this.packedEvents = packedEvents;
+            this.events = events;
+            this.start = start;
+            this.end = end;
+            this.pitches = pitches;
+            this.volumes = volumes;
+            this.channels = channels;
+            this.noteOnEvents = noteOnEvents;
+            this.noteOffEvents = noteOffEvents;
+        }
+
+        @Override
+        protected void compute() {
+            Arrays.sort(packedEvents, start, end);
+            try {
+                for (int e = start; e < end; e++) {
+                    int i = (int) (packedEvents[e] & Integer.MAX_VALUE);
+                    boolean isNoteOn = (packedEvents[e] & (1L << 31)) != 0;
+                    ShortMessage message = new ShortMessage(
+                            (isNoteOn ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF)
+                                    + channels[i], pitches[i], volumes[i]);
+                    events[e] = new MidiEvent(message, packedEvents[e] >>> 32);
+                    track.add(events[e]);
+                    if (isNoteOn && noteOnEvents != null) {
+                        noteOnEvents[i] = events[e];
+                    } else if (!isNoteOn && noteOffEvents != null) {
+                        noteOffEvents[i] = events[e];
+                    }
+                }
+            } catch (InvalidMidiDataException e) {
+                // cannot happen, every note was checked before building
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Gets the position of the sequencer, moved back by the time it takes
+     * the sound to be heard so it matches what is heard right now. The
+     * current tempo, including any tempo changes, is used to convert the
+     * delay to ticks.
+     *
+     * @return the tick being heard, 0 until the sequencer is ready
+     */
+    @Override
+    public double getAudibleTickPosition() {
+        if (!getIsReady()) {
+            return 0;
+        }
+        double ticksPerMicrosecond = sequencer.getTempoInBPM() * sequencer.getTempoFactor()
+                * getResolution() / 60000000.0;
+        return Math.max(0, sequencer.getTickPosition() - latency * ticksPerMicrosecond);
     }
 
     /**
      * plays all the Midi events in all the tracks of this composition
-     * immediately
+     * from the beginning, as soon as the sequencer is ready
+     *
+     * @return completed once the sequence has started playing, or
+     *         straight away if it was stopped before it could start
      */
-    public void play() {
+    public CompletableFuture<Void> play() {
+        isPlayRequested = true;
+        return ready.thenRun(() -> {
+            if (isPlayRequested && sequencer != null) {
+                sequencer.setTickPosition(0);
+                sequencer.setTempoInBPM(beatsPerMinute);
+                sequencer.start();
+            }
+        });
+    }
 
-        sequencer.setTempoInBPM(beatsPerMinute);
-        sequencer.start();
+    /**
+     * Indicates whether the sequencer and synthesizer have been opened
+     *
+     * @return if the player is ready to play
+     */
+    public boolean getIsReady() {
+        return ready.isDone() && sequencer != null;
+    }
+
+    /**
+     * waits until the sequencer and synthesizer have been opened, or
+     * could not be
+     */
+    public void awaitReady() {
+        ready.join();
     }
 
+    /**
+     * Gets the synthesizer's clock, the time stamps of the messages sent
+     * to its receiver are measured on
+     *
+     * @return the synthesizer's position in microseconds, or -1 if the
+     *         synthesizer is not ready or there is no sound device
+     */
+    public long getSynthesizerMicrosecondPosition() {
+        if (!getIsReady() || synthesizer == null) {
+            return -1;
+        }
+        return synthesizer.getMicrosecondPosition();
+    }
+
+    /**
+     * @return how long after the synthesizer plays a message it is
+     *         heard, in microseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Gets a receiver that sends messages straight to the synthesizer,
+     * without going through the sequencer
+     *
+     * @return a new receiver, or null if the synthesizer is not ready or
+     *         there is no sound device
+     */
+    public Receiver getSynthesizerReceiver() {
+        if (!getIsReady() || synthesizer == null) {
+            return null;
+        }
+        try {
+            return synthesizer.getReceiver();
+        } catch (MidiUnavailableException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
     /**
      * Indicates whether the music is being played
      *
      * @return if is playing or not
      */
+    @Override
     public boolean getIsPlaying() {
-        return sequencer.isRunning();
+        return getIsReady() && sequencer.isRunning();
     }
 
     /**
      * stops all the Midi events currently playing or yet to be played
      */
     public void stop() {
-        sequencer.stop();
+        isPlayRequested = false;
+        if (getIsReady()) {
+            sequencer.stop();
+        }
+    }
+
+    /**
+     * closes the sequencer and the synthesizer, once they have been
+     * opened, so their threads and sound line are released. The player
+     * cannot be used afterwards.
+     */
+    public void close() {
+        isPlayRequested = false;
+        ready.join();
+        if (sequencer != null) {
+            sequencer.close();
+        }
+        if (synthesizer != null) {
+            synthesizer.close();
+        }
     }
 
     /**
@@ -135,10 +669,30 @@ public class MidiPlayer {
      */
     public void clear() {
         try {
-            sequencer.setSequence(new Sequence(Sequence.PPQ,
-                    getResolution(), NUM_TRACKS));
+            setSequence(new Sequence(Sequence.PPQ, getResolution(), NUM_TRACKS));
         } catch (InvalidMidiDataException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * replaces the composition with a sequence built by buildSequence.
+     * The player should be stopped first. If the sequencer is still being
+     * opened it is given the sequence that is current once it is open.
+     *
+     * @param sequence the new sequence, with NUM_TRACKS tracks
+     */
+    public void setSequence(Sequence sequence) {
+        synchronized (sequenceLock) {
+            this.sequence = sequence;
+            tracks = sequence.getTracks();
+            if (sequencer != null) {
+                try {
+                    sequencer.setSequence(sequence);
+                } catch (InvalidMidiDataException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 }
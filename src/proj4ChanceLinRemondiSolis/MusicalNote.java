@@ -8,12 +8,15 @@
 
 package proj4ChanceLinRemondiSolis;
 
+import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 
 /**
- * This class models a musical note
+ * This class models a musical note. The note's data lives in a
+ * NoteStore; this class is a view of one entry in the store, optionally
+ * drawn by a Rectangle.
  *
  * @author Graham Chance
  * @author Jenny Lin
@@ -41,19 +44,25 @@ public class MusicalNote {
     private static final int VOLUME = 100;
 
     /**
-     * The rectangle representing the note visually.
+     * The height of the note's rectangle, which is one pitch row.
      */
-    private Rectangle noteBox;
+    private static final int HEIGHT = 10;
 
     /**
-     * The instrument for the note.
+     * The store holding the note's data.
      */
-    private int channel;
+    private NoteStore store;
 
     /**
-     * The track index of the note.
+     * The id of the note in the store.
      */
-    private int trackIndex;
+    private int id;
+
+    /**
+     * The rectangle representing the note visually, null if the note
+     * is not shown.
+     */
+    private Rectangle noteBox;
 
     /**
      * Whether the note is currently selected.
@@ -62,15 +71,33 @@ public class MusicalNote {
 
 
     /**
-     * Constructor
+     * Constructor. Adds a new note that is not shown to the store.
+     * Each channel's notes go in a track of their own, with the same
+     * number as the channel.
      *
-     * @param newNoteBox Rectangle object that represents the note graphically
-     * @param channel    the channel that the note belongs to
+     * @param store     the store to add the note to
+     * @param pitch     the pitch of the note
+     * @param startTick the starting tick of the note
+     * @param duration  the duration of the note in ticks
+     * @param channel   the channel that the note belongs to
      */
-    public MusicalNote(Rectangle newNoteBox, int channel) {
-        this.noteBox = newNoteBox;
-        this.channel = channel;
-        this.trackIndex = 0;
+    public MusicalNote(NoteStore store, int pitch, int startTick, int duration,
+                       int channel) {
+        this(store, store.add(pitch, startTick, duration, channel, channel, VOLUME), null);
+    }
+
+    /**
+     * Constructor. Creates a view of a note that is already in the store.
+     *
+     * @param store   the store holding the note
+     * @param id      the id of the note in the store
+     * @param noteBox Rectangle object that represents the note graphically,
+     *                or null if the note is not shown
+     */
+    public MusicalNote(NoteStore store, int id, Rectangle noteBox) {
+        this.store = store;
+        this.id = id;
+        this.noteBox = noteBox;
         this.setSelected(true);
     }
 
@@ -91,12 +118,15 @@ public class MusicalNote {
 
 
     /**
-     * Accessor method for the bounds of the note in the compositon
+     * Accessor method for the bounds of the note in the compositon.
+     * The bounds are taken from the note's data in the store, which
+     * matches its rectangle's bounds in parent when it is not moving.
      *
      * @return bounds of the note
      */
     public Bounds getBounds() {
-        return this.noteBox.getBoundsInParent();
+        return new BoundingBox(getStartTick(), (127 - getPitch()) * HEIGHT,
+                getDuration(), HEIGHT);
     }
 
 
@@ -149,10 +179,19 @@ public class MusicalNote {
                 ((x >= bounds.getMaxX() - 5) && x < bounds.getMaxX());
     }
 
+    /**
+     * Accessor method for the id of the note in the store
+     *
+     * @return id of the note
+     */
+    public int getId() {
+        return this.id;
+    }
+
     /**
      * Accessor method for the graphical note box
      *
-     * @return Graphical note box
+     * @return Graphical note box, null if the note is not shown
      */
     public Rectangle getNoteBox() {
         return this.noteBox;
@@ -164,7 +203,17 @@ public class MusicalNote {
      * @return Pitch of the note
      */
     public int getPitch() {
-        return 127 - ((int) this.noteBox.getY() / 10);
+        return this.store.getPitch(this.id);
+    }
+
+    /**
+     * Converts a y coordinate in the composition to a pitch
+     *
+     * @param y y coordinate of the top of a note
+     * @return Pitch played by a note at that height
+     */
+    private static int getPitch(double y) {
+        return 127 - ((int) y / HEIGHT);
     }
 
     /**
@@ -173,7 +222,7 @@ public class MusicalNote {
      * @return Volume of the note
      */
     public int getVolume() {
-        return this.VOLUME;
+        return this.store.getVolume(this.id);
     }
 
     /**
@@ -182,7 +231,7 @@ public class MusicalNote {
      * @return Starting tick of the note
      */
     public int getStartTick() {
-        return (int) this.noteBox.getX();
+        return this.store.getStartTick(this.id);
     }
 
     /**
@@ -191,7 +240,7 @@ public class MusicalNote {
      * @return How long the note plays
      */
     public int getDuration() {
-        return (int) this.noteBox.getWidth();
+        return this.store.getDuration(this.id);
     }
 
     /**
@@ -200,7 +249,7 @@ public class MusicalNote {
      * @return Channel that the note is played on
      */
     public int getChannel() {
-        return this.channel;
+        return this.store.getChannel(this.id);
     }
 
     /**
@@ -209,7 +258,7 @@ public class MusicalNote {
      * @return Track for the note
      */
     public int getTrackIndex() {
-        return this.trackIndex;
+        return this.store.getTrackIndex(this.id);
     }
 
     /**************************************************************************
@@ -220,40 +269,90 @@ public class MusicalNote {
 
 
     /**
-     * Rounds the y coordinate of the note's rectangle in order to snap to a
-     * space between two horizontal bars.
+     * Resizes the note in the right direction, keeping it at least
+     * the minimum width.
+     *
+     * @param dx the distance to move the right edge
      */
-    public void roundToNearestYLocation() {
-        if (noteBox.getY() % 10 < 5) {
-            setPosition(noteBox.getX(), noteBox.getY() - (noteBox.getY() % 10));
-        } else {
-            setPosition(noteBox.getX(), noteBox.getY() + (10 - (noteBox.getY() % 10)));
-        }
+    public void resizeRight(double dx) {
+        this.store.setDuration(this.id,
+                Math.max(MINIMUM_WIDTH, getDuration() + (int) Math.round(dx)));
+        updateNoteBox(0, 0, 0);
     }
 
     /**
-     * Resizes the note's rectangle in the right direction.
+     * Sets how long the note lasts, as when a resize is undone.
      *
-     * @param dx the distance to move the right edge
+     * @param duration the new duration of the note in ticks
      */
-    public void resizeRight(double dx) {
-        if (noteBox.getWidth() < MINIMUM_WIDTH) {
-            this.noteBox.setWidth(MINIMUM_WIDTH);
-        } else {
-            this.noteBox.setWidth(noteBox.getWidth() + dx);
-        }
+    public void setDuration(int duration) {
+        this.store.setDuration(this.id, duration);
+        updateNoteBox(0, 0, 0);
     }
 
+    /**
+     * Moves the note by the given distance and drops it in the nearest
+     * space between two horizontal bars.
+     *
+     * @param dx the distance to move the note horizontally
+     * @param dy the distance to move the note vertically
+     */
+    public void moveBy(double dx, double dy) {
+        double y = (127 - getPitch()) * HEIGHT + dy;
+        setPosition(Math.round(getStartTick() + dx), Math.round(y / HEIGHT) * HEIGHT);
+    }
 
     /**
-     * Moves the note's rectangle to the given coordinates
+     * Moves the note to the given coordinates
      *
      * @param x the x coordinate to move to
      * @param y the y coordinate to move to
      */
     public void setPosition(double x, double y) {
-        this.noteBox.setX(x);
-        this.noteBox.setY(y);
+        this.store.setStartTick(this.id, (int) x);
+        this.store.setPitch(this.id, getPitch(y));
+        updateNoteBox(0, 0, 0);
+    }
+
+    /**
+     * Shows the note's rectangle moved and widened by the given amounts,
+     * without changing the note, while it is being dragged.
+     *
+     * @param dx     how far the note has been dragged horizontally
+     * @param dy     how far the note has been dragged vertically
+     * @param dWidth how much wider the note has been made
+     */
+    public void showDragOffset(double dx, double dy, double dWidth) {
+        updateNoteBox(dx, dy, dWidth);
+    }
+
+    /**
+     * Shows the note with the given rectangle, or stops showing it.
+     * The rectangle is moved to the note's location.
+     *
+     * @param noteBox the rectangle to show the note with, or null
+     */
+    public void setNoteBox(Rectangle noteBox) {
+        this.noteBox = noteBox;
+        updateNoteBox(0, 0, 0);
+        setSelected(this.selected);
+    }
+
+    /**
+     * Moves the note's rectangle, if it has one, to the note's location
+     * offset by the given amounts.
+     *
+     * @param dx     horizontal offset from the note's location
+     * @param dy     vertical offset from the note's location
+     * @param dWidth how much wider than the note to make the rectangle
+     */
+    private void updateNoteBox(double dx, double dy, double dWidth) {
+        if (this.noteBox != null) {
+            this.noteBox.setX(getStartTick() + dx);
+            this.noteBox.setY((127 - getPitch()) * HEIGHT + dy);
+            this.noteBox.setWidth(Math.max(0, getDuration() + dWidth));
+            this.noteBox.setHeight(HEIGHT);
+        }
     }
 
     /**
@@ -263,6 +362,9 @@ public class MusicalNote {
      */
     public void setSelected(boolean isSelected) {
         this.selected = isSelected;
+        if (this.noteBox == null) {
+            return;
+        }
         if (this.selected) {
             this.noteBox.setStroke(Color.RED);
             this.noteBox.setStrokeWidth(3);
@@ -271,4 +373,4 @@ public class MusicalNote {
             this.noteBox.setStrokeWidth(1);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,685 @@
+/*
+ * File: NoteIndex.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * This class is a spatial index over the notes of a composition.
+ *
+ * Notes are filed by pitch row (every row is 10 pixels high) and,
+ * within a row, in a tree ordered by the x position where they start.
+ * Every part of the tree knows how far right its notes reach, so a hit
+ * test takes logarithmic time in the size of the row, however long the
+ * notes in it are, instead of walking the whole composition.
+ *
+ * Notes are filed by their id in the NoteStore, in arrays of ints, so
+ * the index needs no object per note. A MusicalNote is only asked for
+ * when a note is found by a query.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class NoteIndex {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The height of a pitch row in pixels.
+     */
+    private static final double ROW_HEIGHT = 10;
+
+    /**
+     * Marks a note id that is not filed in the index.
+     */
+    private static final int NOT_FILED = Integer.MIN_VALUE;
+
+    /**
+     * The store holding the notes
+     */
+    private NoteStore store;
+
+    /**
+     * Gives the MusicalNote of a note id
+     */
+    private IntFunction<MusicalNote> notes;
+
+    /**
+     * Maps a row number to the notes in that row
+     */
+    private HashMap<Integer, Row> rows;
+
+    /**
+     * The row and the node of that row's tree each note id was filed
+     * under, so it can be found again after it has been moved or resized
+     */
+    private int[] filedRows, filedNodes;
+
+    /**
+     * Constructor
+     *
+     * @param store the store holding the notes
+     * @param notes gives the MusicalNote of a note id
+     */
+    public NoteIndex(NoteStore store, IntFunction<MusicalNote> notes) {
+        this.store = store;
+        this.notes = notes;
+        this.rows = new HashMap<>();
+        this.filedRows = new int[0];
+        this.filedNodes = new int[0];
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                          Index maintenance                             *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Adds a note to the index at its current location.
+     *
+     * @param note the note to add
+     */
+    public void add(MusicalNote note) {
+        add(note.getId());
+    }
+
+    /**
+     * Removes a note from the index.
+     *
+     * @param note the note to remove
+     */
+    public void remove(MusicalNote note) {
+        remove(note.getId());
+    }
+
+    /**
+     * Removes many notes from the index, each in logarithmic time.
+     *
+     * @param ids the ids of the notes to remove
+     */
+    public void removeAll(BitSet ids) {
+        for (int id = ids.nextSetBit(0); id >= 0 && id < this.filedRows.length;
+             id = ids.nextSetBit(id + 1)) {
+            remove(id);
+        }
+    }
+
+    /**
+     * Refiles a note that has been moved or resized.
+     *
+     * @param note the note to update
+     */
+    public void update(MusicalNote note) {
+        remove(note.getId());
+        add(note.getId());
+    }
+
+    /**
+     * Removes every note from the index.
+     */
+    public void clear() {
+        this.rows.clear();
+        Arrays.fill(this.filedRows, NOT_FILED);
+    }
+
+    /**
+     * Files every note of the store, replacing whatever was filed. Each
+     * row is sorted once and its tree built in one pass instead of having
+     * its notes inserted one by one.
+     */
+    public void rebuild() {
+        clear();
+        int idLimit = this.store.getIdLimit();
+        ensureCapacity(idLimit);
+
+        HashMap<Integer, long[]> rowStarts = new HashMap<>();
+        HashMap<Integer, int[]> rowSizes = new HashMap<>();
+        for (int id = 0; id < idLimit; id++) {
+            if (this.store.isLive(id)) {
+                int rowNumber = 127 - this.store.getPitch(id);
+                rowSizes.computeIfAbsent(rowNumber, (key) -> new int[1])[0]++;
+            }
+        }
+        for (Integer rowNumber : rowSizes.keySet()) {
+            rowStarts.put(rowNumber, new long[rowSizes.get(rowNumber)[0]]);
+            rowSizes.get(rowNumber)[0] = 0;
+        }
+        for (int id = 0; id < idLimit; id++) {
+            if (this.store.isLive(id)) {
+                int rowNumber = 127 - this.store.getPitch(id);
+                int start = this.store.getStartTick(id);
+                // pack each start with its id so sorting needs no objects
+                rowStarts.get(rowNumber)[rowSizes.get(rowNumber)[0]++] =
+                        ((long) start << 32) | id;
+                this.filedRows[id] = rowNumber;
+            }
+        }
+        for (Integer rowNumber : rowStarts.keySet()) {
+            long[] packed = rowStarts.get(rowNumber);
+            Arrays.sort(packed);
+            Row row = new Row(packed.length);
+            for (long startAndId : packed) {
+                int id = (int) startAndId;
+                this.filedNodes[id] = row.append(id, (int) (startAndId >> 32),
+                                                 this.store.getDuration(id));
+            }
+            row.build();
+            this.rows.put(rowNumber, row);
+        }
+    }
+
+    /**
+     * Files a note id at the note's current location.
+     *
+     * @param id the id of the note
+     */
+    private void add(int id) {
+        ensureCapacity(id + 1);
+        int rowNumber = 127 - this.store.getPitch(id);
+        int start = this.store.getStartTick(id);
+        int width = this.store.getDuration(id);
+        Row row = this.rows.get(rowNumber);
+        if (row == null) {
+            row = new Row(1);
+            this.rows.put(rowNumber, row);
+        }
+        this.filedNodes[id] = row.add(id, start, width);
+        this.filedRows[id] = rowNumber;
+    }
+
+    /**
+     * Takes a note id out of the index, if it is filed.
+     *
+     * @param id the id of the note
+     */
+    private void remove(int id) {
+        if (id >= this.filedRows.length || this.filedRows[id] == NOT_FILED) {
+            return;
+        }
+        Row row = this.rows.get(this.filedRows[id]);
+        row.remove(this.filedNodes[id]);
+        if (row.size == 0) {
+            this.rows.remove(this.filedRows[id]);
+        }
+        this.filedRows[id] = NOT_FILED;
+    }
+
+    /**
+     * Makes room to file the note ids below the given limit.
+     *
+     * @param idLimit one more than the biggest id to file
+     */
+    private void ensureCapacity(int idLimit) {
+        if (idLimit > this.filedRows.length) {
+            int oldLength = this.filedRows.length;
+            int capacity = Math.max(idLimit, oldLength * 2);
+            this.filedRows = Arrays.copyOf(this.filedRows, capacity);
+            this.filedNodes = Arrays.copyOf(this.filedNodes, capacity);
+            Arrays.fill(this.filedRows, oldLength, capacity, NOT_FILED);
+        }
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                               Queries                                  *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Finds a note, if one exists, whose rectangle contains the given point.
+     *
+     * @param x x coordinate in the composition
+     * @param y y coordinate in the composition
+     * @return the note at the point
+     */
+    public Optional<MusicalNote> getNoteAt(double x, double y) {
+        int rowNumber = getRowNumber(y);
+        int id = getNoteInRow(rowNumber, x);
+        // a point on a staff line touches the row above it as well
+        if (id < 0 && y % ROW_HEIGHT == 0) {
+            id = getNoteInRow(rowNumber - 1, x);
+        }
+        return id < 0 ? Optional.empty() : Optional.of(this.notes.apply(id));
+    }
+
+    /**
+     * Finds a note in the given row whose horizontal extent contains x.
+     *
+     * @param rowNumber the row to look in
+     * @param x         x coordinate in the composition
+     * @return the id of the note at x in the row, or -1 if there is none
+     */
+    private int getNoteInRow(int rowNumber, double x) {
+        Row row = this.rows.get(rowNumber);
+        return row == null ? -1 : row.getFirstNoteAt(x);
+    }
+
+    /**
+     * Finds all the notes whose rectangles touch the given area.
+     *
+     * @param minX the smallest x coordinate of the area
+     * @param minY the smallest y coordinate of the area
+     * @param maxX the biggest x coordinate of the area
+     * @param maxY the biggest y coordinate of the area
+     * @return the notes touching the area
+     */
+    public ArrayList<MusicalNote> getNotesInArea(double minX, double minY,
+                                                 double maxX, double maxY) {
+        ArrayList<MusicalNote> found = new ArrayList<>();
+        int lastRow = getRowNumber(maxY);
+        // a note's rectangle reaches down to the top of the next row
+        for (int rowNumber = (int) Math.ceil(minY / ROW_HEIGHT) - 1;
+             rowNumber <= lastRow; rowNumber++) {
+            Row row = this.rows.get(rowNumber);
+            if (row == null) {
+                continue;
+            }
+            row.forEachNoteIn(row.root, minX, maxX,
+                              (id) -> found.add(this.notes.apply(id)));
+        }
+        return found;
+    }
+
+    /**
+     * Finds the notes on the sheet that start in a range of ticks, row by
+     * row, so within a row in start order.
+     *
+     * @param fromTick the first tick of the range
+     * @param toTick   the tick after the range
+     * @param action   is given the id of each note found
+     */
+    public void forEachNoteStartingIn(int fromTick, int toTick, IntConsumer action) {
+        for (int rowNumber = 0; rowNumber < 128; rowNumber++) {
+            Row row = this.rows.get(rowNumber);
+            if (row == null) {
+                continue;
+            }
+            row.forEachNoteStartingIn(row.root, fromTick, toTick, action);
+        }
+    }
+
+    /**
+     * Finds the tick the last note on the sheet starts at.
+     *
+     * @return the last start tick, or -1 if the sheet has no notes
+     */
+    public int getLastStartTick() {
+        int lastStart = -1;
+        for (int rowNumber = 0; rowNumber < 128; rowNumber++) {
+            Row row = this.rows.get(rowNumber);
+            if (row != null) {
+                lastStart = Math.max(lastStart, row.getLastStart());
+            }
+        }
+        return lastStart;
+    }
+
+    /**
+     * Converts a y coordinate to the pitch row it falls in.
+     *
+     * @param y y coordinate in the composition
+     * @return the row number
+     */
+    private static int getRowNumber(double y) {
+        return (int) Math.floor(y / ROW_HEIGHT);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                            Helper classes                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The notes of one pitch row in a treap, a binary search tree kept
+     * balanced by giving every node a random priority, held in parallel
+     * arrays indexed by node. Nodes are ordered by start position, and
+     * notes with the same start are kept in the order they were filed.
+     * Every node knows the furthest end of the notes below it, so a
+     * search skips any part of the tree that ends before the point it
+     * looks for. Filing, removing and finding a note take logarithmic
+     * time in the size of the row.
+     */
+    private static class Row {
+        /**
+         * Marks a missing child or the end of the list of free nodes
+         */
+        static final int NONE = -1;
+
+        int[] ids;
+        int[] starts;
+        int[] widths;
+        int[] orders;
+        int[] priorities;
+        int[] lefts;
+        int[] rights;
+        long[] maxEnds;
+        int root;
+        int size;
+
+        /**
+         * The number of nodes ever used, and the first of the nodes freed
+         * since, linked through their left children
+         */
+        int nodeLimit;
+        int freeNode;
+
+        /**
+         * The filing order given to the next note, so notes with the same
+         * start keep the order they were filed in
+         */
+        int nextOrder;
+
+        Random random;
+
+        Row(int capacity) {
+            this.ids = new int[capacity];
+            this.starts = new int[capacity];
+            this.widths = new int[capacity];
+            this.orders = new int[capacity];
+            this.priorities = new int[capacity];
+            this.lefts = new int[capacity];
+            this.rights = new int[capacity];
+            this.maxEnds = new long[capacity];
+            this.root = NONE;
+            this.freeNode = NONE;
+            this.random = new Random();
+        }
+
+        /**
+         * Adds a note after every note filed so far, leaving it out of
+         * the tree until build is called.
+         *
+         * @return the node of the note
+         */
+        int append(int id, int start, int width) {
+            return newNode(id, start, width);
+        }
+
+        /**
+         * Links the appended notes into a tree in one pass, keeping the
+         * nodes of the highest priorities nearest the root.
+         */
+        void build() {
+            int[] path = new int[this.nodeLimit];
+            int pathLength = 0;
+            for (int node = 0; node < this.nodeLimit; node++) {
+                int lastPopped = NONE;
+                while (pathLength > 0
+                       && this.priorities[path[pathLength - 1]] < this.priorities[node]) {
+                    lastPopped = path[--pathLength];
+                }
+                this.lefts[node] = lastPopped;
+                if (pathLength > 0) {
+                    this.rights[path[pathLength - 1]] = node;
+                }
+                path[pathLength++] = node;
+            }
+            this.root = pathLength > 0 ? path[0] : NONE;
+            updateAll(this.root);
+        }
+
+        /**
+         * @return the node of the note
+         */
+        int add(int id, int start, int width) {
+            int node = newNode(id, start, width);
+            this.root = insert(this.root, node);
+            return node;
+        }
+
+        void remove(int node) {
+            this.root = remove(this.root, node);
+            this.lefts[node] = this.freeNode;
+            this.freeNode = node;
+            this.size--;
+        }
+
+        /**
+         * @param x the x coordinate to look at
+         * @return the id of the first note, in start order, whose extent
+         *         contains x, or -1 if there is none
+         */
+        int getFirstNoteAt(double x) {
+            int node = this.root;
+            while (node != NONE) {
+                int left = this.lefts[node];
+                // a note below on the left reaching x starts no later than
+                // any note further right, so if none of them holds x none do
+                if (left != NONE && this.maxEnds[left] >= x) {
+                    node = left;
+                } else if (this.starts[node] > x) {
+                    return -1;
+                } else if (getEnd(node) >= x) {
+                    return this.ids[node];
+                } else {
+                    node = this.rights[node];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Finds the notes below a node whose extents touch a range of x
+         * coordinates, in start order.
+         *
+         * @param node   the node to search from
+         * @param minX   the smallest x coordinate of the range
+         * @param maxX   the biggest x coordinate of the range
+         * @param action is given the id of each note found
+         */
+        void forEachNoteIn(int node, double minX, double maxX, IntConsumer action) {
+            if (node == NONE || this.maxEnds[node] < minX) {
+                return;
+            }
+            forEachNoteIn(this.lefts[node], minX, maxX, action);
+            if (this.starts[node] <= maxX) {
+                if (getEnd(node) >= minX) {
+                    action.accept(this.ids[node]);
+                }
+                forEachNoteIn(this.rights[node], minX, maxX, action);
+            }
+        }
+
+        /**
+         * Finds the notes below a node that start in a range of ticks, in
+         * start order.
+         *
+         * @param node     the node to search from
+         * @param fromTick the first tick of the range
+         * @param toTick   the tick after the range
+         * @param action   is given the id of each note found
+         */
+        void forEachNoteStartingIn(int node, int fromTick, int toTick, IntConsumer action) {
+            if (node == NONE) {
+                return;
+            }
+            if (this.starts[node] >= fromTick) {
+                forEachNoteStartingIn(this.lefts[node], fromTick, toTick, action);
+            }
+            if (this.starts[node] < toTick) {
+                if (this.starts[node] >= fromTick) {
+                    action.accept(this.ids[node]);
+                }
+                forEachNoteStartingIn(this.rights[node], fromTick, toTick, action);
+            }
+        }
+
+        /**
+         * @return the start of the last note in the row
+         */
+        int getLastStart() {
+            int node = this.root;
+            while (this.rights[node] != NONE) {
+                node = this.rights[node];
+            }
+            return this.starts[node];
+        }
+
+        private int newNode(int id, int start, int width) {
+            int node = this.freeNode;
+            if (node != NONE) {
+                this.freeNode = this.lefts[node];
+            } else {
+                if (this.nodeLimit == this.ids.length) {
+                    int capacity = Math.max(4, this.nodeLimit * 2);
+                    this.ids = Arrays.copyOf(this.ids, capacity);
+                    this.starts = Arrays.copyOf(this.starts, capacity);
+                    this.widths = Arrays.copyOf(this.widths, capacity);
+                    this.orders = Arrays.copyOf(this.orders, capacity);
+                    this.priorities = Arrays.copyOf(this.priorities, capacity);
+                    this.lefts = Arrays.copyOf(this.lefts, capacity);
+                    this.rights = Arrays.copyOf(this.rights, capacity);
+                    this.maxEnds = Arrays.copyOf(this.maxEnds, capacity);
+                }
+                node = this.nodeLimit++;
+            }
+            this.ids[node] = id;
+            this.starts[node] = start;
+            this.widths[node] = width;
+            this.orders[node] = this.nextOrder++;
+            this.priorities[node] = this.random.nextInt();
+            this.lefts[node] = NONE;
+            this.rights[node] = NONE;
+            this.maxEnds[node] = getEnd(node);
+            this.size++;
+            return node;
+        }
+
+        private int insert(int subtree, int node) {
+            if (subtree == NONE) {
+                return node;
+            }
+            if (isBefore(node, subtree)) {
+                this.lefts[subtree] = insert(this.lefts[subtree], node);
+                if (this.priorities[this.lefts[subtree]] > this.priorities[subtree]) {
+                    return rotateRight(subtree);
+                }
+            } else {
+                this.rights[subtree] = insert(this.rights[subtree], node);
+                if (this.priorities[this.rights[subtree]] > this.priorities[subtree]) {
+                    return rotateLeft(subtree);
+                }
+            }
+            update(subtree);
+            return subtree;
+        }
+
+        private int remove(int subtree, int node) {
+            if (subtree == node) {
+                return merge(this.lefts[node], this.rights[node]);
+            }
+            if (isBefore(node, subtree)) {
+                this.lefts[subtree] = remove(this.lefts[subtree], node);
+            } else {
+                this.rights[subtree] = remove(this.rights[subtree], node);
+            }
+            update(subtree);
+            return subtree;
+        }
+
+        /**
+         * Joins two trees where every note of the first comes before
+         * every note of the second.
+         *
+         * @return the root of the joined tree
+         */
+        private int merge(int first, int second) {
+            if (first == NONE) {
+                return second;
+            }
+            if (second == NONE) {
+                return first;
+            }
+            if (this.priorities[first] > this.priorities[second]) {
+                this.rights[first] = merge(this.rights[first], second);
+                update(first);
+                return first;
+            }
+            this.lefts[second] = merge(first, this.lefts[second]);
+            update(second);
+            return second;
+        }
+
+        private int rotateRight(int node) {
+            int left = this.lefts[node];
+            this.lefts[node] = this.rights[left];
+            this.rights[left] = node;
+            update(node);
+            update(left);
+            return left;
+        }
+
+        private int rotateLeft(int node) {
+            int right = this.rights[node];
+            this.rights[node] = this.lefts[right];
+            this.lefts[right] = node;
+            update(node);
+            update(right);
+            return right;
+        }
+
+        private void updateAll(int node) {
+            if (node != NONE) {
+                updateAll(this.lefts[node]);
+                updateAll(this.rights[node]);
+                update(node);
+            }
+        }
+
+        /**
+         * Recomputes the furthest end below a node from its children.
+         */
+        private void update(int node) {
+            long maxEnd = getEnd(node);
+            if (this.lefts[node] != NONE) {
+                maxEnd = Math.max(maxEnd, this.maxEnds[this.lefts[node]]);
+            }
+            if (this.rights[node] != NONE) {
+                maxEnd = Math.max(maxEnd, this.maxEnds[this.rights[node]]);
+            }
+            this.maxEnds[node] = maxEnd;
+        }
+
+        private long getEnd(int node) {
+            return (long) this.starts[node] + this.widths[node];
+        }
+
+        /**
+         * @return whether the first node comes before the second in start
+         *         order, then in the order they were filed
+         */
+        private boolean isBefore(int first, int second) {
+            if (this.starts[first] != this.starts[second]) {
+                return this.starts[first] < this.starts[second];
+            }
+            // the difference stays right when the order numbers wrap around
+            return this.orders[first] - this.orders[second] < 0;
+        }
+    }
+}
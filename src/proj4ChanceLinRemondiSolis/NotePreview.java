@@ -0,0 +1,240 @@
+/*
+ * File: NotePreview.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class plays a single note straight away so the user can hear a
+ * note while placing, moving or resizing it.
+ *
+ * The note is sent directly to the synthesizer, not through the
+ * sequencer, using the same two messages every time. When notes are
+ * asked for faster than MINIMUM_INTERVAL apart, as when a note is
+ * dragged across many rows, only the last one asked for is played once
+ * the interval has passed.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class NotePreview {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The shortest time between two notes starting, in nanoseconds.
+     */
+    private static final long MINIMUM_INTERVAL = TimeUnit.MILLISECONDS.toNanos(60);
+
+    /**
+     * The longest a note is played for, in milliseconds.
+     */
+    private static final long MAXIMUM_LENGTH = 1500;
+
+    /**
+     * Runs the delayed note starts and stops, on one daemon thread
+     */
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "NotePreview");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The player whose synthesizer plays the notes
+     */
+    private MidiPlayer midiPlayer;
+
+    /**
+     * Sends the notes to the synthesizer, null until it is ready
+     */
+    private Receiver receiver;
+
+    /**
+     * The message starting a note, reused for every note
+     */
+    private ShortMessage noteOn;
+
+    /**
+     * The message stopping a note, reused for every note
+     */
+    private ShortMessage noteOff;
+
+    /**
+     * Starts the note waiting to be played
+     */
+    private Runnable startTask;
+
+    /**
+     * Stops the playing note if its time is up
+     */
+    private Runnable stopTask;
+
+    /**
+     * The note waiting to be played
+     */
+    private int pendingPitch, pendingChannel, pendingVolume;
+
+    /**
+     * How long to play the note waiting to be played, in milliseconds
+     */
+    private long pendingLength;
+
+    /**
+     * Whether a note is waiting for startTask to play it
+     */
+    private boolean isStartScheduled;
+
+    /**
+     * The note playing, or -1 when none is
+     */
+    private int playingPitch, playingChannel;
+
+    /**
+     * When the last note started and when the playing note is to stop,
+     * from System.nanoTime
+     */
+    private long lastStartTime, stopTime;
+
+    /**
+     * Constructor
+     *
+     * @param midiPlayer the player whose synthesizer plays the notes
+     */
+    public NotePreview(MidiPlayer midiPlayer) {
+        this.midiPlayer = midiPlayer;
+        this.noteOn = new ShortMessage();
+        this.noteOff = new ShortMessage();
+        this.startTask = this::startPendingNote;
+        this.stopTask = this::stopNoteIfDone;
+        this.playingPitch = -1;
+        this.lastStartTime = System.nanoTime() - MINIMUM_INTERVAL;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Methods                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Plays a note now, or as soon as the last note has played for long
+     * enough. A note asked for before then replaces this one.
+     *
+     * @param pitch  the pitch of the note, from 0 to 127
+     * @param volume the volume of the note, from 0 to 127
+     * @param channel the channel to play the note on
+     * @param length how long to play the note, in milliseconds
+     */
+    public synchronized void play(int pitch, int volume, int channel, long length) {
+        if (pitch < 0 || pitch > 127) {
+            return;
+        }
+        this.pendingPitch = pitch;
+        this.pendingVolume = volume;
+        this.pendingChannel = channel;
+        this.pendingLength = Math.min(length, MAXIMUM_LENGTH);
+        if (this.isStartScheduled) {
+            return;
+        }
+        long wait = this.lastStartTime + MINIMUM_INTERVAL - System.nanoTime();
+        if (wait <= 0) {
+            startPendingNote();
+        } else {
+            this.isStartScheduled = true;
+            SCHEDULER.schedule(this.startTask, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops the note playing, if there is one.
+     */
+    public synchronized void stop() {
+        if (this.playingPitch < 0) {
+            return;
+        }
+        try {
+            this.noteOff.setMessage(ShortMessage.NOTE_OFF, this.playingChannel,
+                    this.playingPitch, 0);
+            this.receiver.send(this.noteOff, -1);
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+        this.playingPitch = -1;
+    }
+
+    /**
+     * Stops the playing note and starts the one waiting to be played.
+     */
+    private synchronized void startPendingNote() {
+        this.isStartScheduled = false;
+        if (this.receiver == null) {
+            this.receiver = this.midiPlayer.getSynthesizerReceiver();
+            if (this.receiver == null) {
+                return;
+            }
+            setPrograms();
+        }
+        stop();
+        try {
+            this.noteOn.setMessage(ShortMessage.NOTE_ON, this.pendingChannel,
+                    this.pendingPitch, this.pendingVolume);
+            this.receiver.send(this.noteOn, -1);
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+            return;
+        }
+        this.playingPitch = this.pendingPitch;
+        this.playingChannel = this.pendingChannel;
+        this.lastStartTime = System.nanoTime();
+        this.stopTime = this.lastStartTime + TimeUnit.MILLISECONDS.toNanos(this.pendingLength);
+        SCHEDULER.schedule(this.stopTask, this.pendingLength, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the playing note unless a later note has replaced it and is
+     * not done yet.
+     */
+    private synchronized void stopNoteIfDone() {
+        if (System.nanoTime() >= this.stopTime) {
+            stop();
+        }
+    }
+
+    /**
+     * Gives each channel its instrument, since the notes do not go
+     * through the sequence that holds the program changes.
+     */
+    private void setPrograms() {
+        try {
+            for (int channel = 0; channel < Instruments.NUM_CHANNELS; channel++) {
+                this.noteOn.setMessage(ShortMessage.PROGRAM_CHANGE, channel,
+                        Instruments.getProgram(channel), 0);
+                this.receiver.send(this.noteOn, -1);
+            }
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * File: NoteStore.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the data of all the notes in a composition.
+ * Each field is kept in its own int array and a note is addressed by
+ * its id, the index into those arrays. Ids of deleted notes are reused
+ * by notes added later.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class NoteStore {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The number of notes room is made for when the store is created.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The pitch of each note
+     */
+    private int[] pitches;
+
+    /**
+     * The starting tick of each note
+     */
+    private int[] startTicks;
+
+    /**
+     * The duration in ticks of each note
+     */
+    private int[] durations;
+
+    /**
+     * The channel (instrument) of each note
+     */
+    private int[] channels;
+
+    /**
+     * The track index of each note
+     */
+    private int[] trackIndices;
+
+    /**
+     * The volume of each note
+     */
+    private int[] volumes;
+
+    /**
+     * Whether each id currently holds a note
+     */
+    private boolean[] live;
+
+    /**
+     * Ids that have been freed by deleting their note
+     */
+    private int[] freeIds;
+
+    /**
+     * The number of ids in freeIds
+     */
+    private int numFreeIds;
+
+    /**
+     * One more than the largest id ever handed out
+     */
+    private int idLimit;
+
+    /**
+     * The number of notes in the store
+     */
+    private int size;
+
+    /**
+     * Constructor
+     */
+    public NoteStore() {
+        this.pitches = new int[INITIAL_CAPACITY];
+        this.startTicks = new int[INITIAL_CAPACITY];
+        this.durations = new int[INITIAL_CAPACITY];
+        this.channels = new int[INITIAL_CAPACITY];
+        this.trackIndices = new int[INITIAL_CAPACITY];
+        this.volumes = new int[INITIAL_CAPACITY];
+        this.live = new boolean[INITIAL_CAPACITY];
+        this.freeIds = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Makes a copy of another store, holding the same notes with the same
+     * ids, that later edits of the other store do not change.
+     *
+     * @param other the store to copy
+     */
+    public NoteStore(NoteStore other) {
+        int capacity = Math.max(INITIAL_CAPACITY, other.idLimit);
+        this.pitches = Arrays.copyOf(other.pitches, capacity);
+        this.startTicks = Arrays.copyOf(other.startTicks, capacity);
+        this.durations = Arrays.copyOf(other.durations, capacity);
+        this.channels = Arrays.copyOf(other.channels, capacity);
+        this.trackIndices = Arrays.copyOf(other.trackIndices, capacity);
+        this.volumes = Arrays.copyOf(other.volumes, capacity);
+        this.live = Arrays.copyOf(other.live, capacity);
+        this.freeIds = Arrays.copyOf(other.freeIds, capacity);
+        this.numFreeIds = other.numFreeIds;
+        this.idLimit = other.idLimit;
+        this.size = other.size;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                          Adding and removing                           *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Adds a note to the store.
+     *
+     * @param pitch      the pitch of the note
+     * @param startTick  the starting tick of the note
+     * @param duration   the duration of the note in ticks
+     * @param channel    the channel of the note
+     * @param trackIndex the track of the note
+     * @param volume     the volume of the note
+     * @return the id of the new note
+     */
+    public int add(int pitch, int startTick, int duration, int channel,
+                   int trackIndex, int volume) {
+        int id;
+        if (this.numFreeIds > 0) {
+            id = this.freeIds[--this.numFreeIds];
+        } else {
+            if (this.idLimit == this.pitches.length) {
+                grow();
+            }
+            id = this.idLimit++;
+        }
+        this.pitches[id] = pitch;
+        this.startTicks[id] = startTick;
+        this.durations[id] = duration;
+        this.channels[id] = channel;
+        this.trackIndices[id] = trackIndex;
+        this.volumes[id] = volume;
+        this.live[id] = true;
+        this.size++;
+        return id;
+    }
+
+    /**
+     * Adds a note to the store under a given id, as when replaying edits
+     * that were made to a store with the same ids. Ids skipped on the way
+     * to it are freed for later notes.
+     *
+     * @param id         the id the note is to have, which must not hold a note
+     * @param pitch      the pitch of the note
+     * @param startTick  the starting tick of the note
+     * @param duration   the duration of the note in ticks
+     * @param channel    the channel of the note
+     * @param trackIndex the track of the note
+     * @param volume     the volume of the note
+     * @throws IllegalArgumentException if the id is negative or holds a note
+     */
+    public void addAt(int id, int pitch, int startTick, int duration, int channel,
+                      int trackIndex, int volume) {
+        if (id < 0 || (id < this.idLimit && this.live[id])) {
+            throw new IllegalArgumentException("Note id " + id + " is in use");
+        }
+        if (id >= this.idLimit) {
+            while (id >= this.pitches.length) {
+                grow();
+            }
+            for (int skipped = this.idLimit; skipped < id; skipped++) {
+                this.freeIds[this.numFreeIds++] = skipped;
+            }
+            this.idLimit = id + 1;
+        } else {
+            // the id was freed most recently in the usual case, so look
+            // for it from the end
+            int i = this.numFreeIds - 1;
+            while (this.freeIds[i] != id) {
+                i--;
+            }
+            System.arraycopy(this.freeIds, i + 1, this.freeIds, i, this.numFreeIds - i - 1);
+            this.numFreeIds--;
+        }
+        this.pitches[id] = pitch;
+        this.startTicks[id] = startTick;
+        this.durations[id] = duration;
+        this.channels[id] = channel;
+        this.trackIndices[id] = trackIndex;
+        this.volumes[id] = volume;
+        this.live[id] = true;
+        this.size++;
+    }
+
+    /**
+     * Removes a note from the store, freeing its id.
+     *
+     * @param id the id of the note
+     */
+    public void remove(int id) {
+        if (this.live[id]) {
+            this.live[id] = false;
+            this.freeIds[this.numFreeIds++] = id;
+            this.size--;
+        }
+    }
+
+    /**
+     * Removes every note from the store.
+     */
+    public void clear() {
+        Arrays.fill(this.live, 0, this.idLimit, false);
+        this.numFreeIds = 0;
+        this.idLimit = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Replaces the notes of this store with the notes of another store,
+     * which is left empty. The notes keep their ids.
+     *
+     * @param other the store whose notes are taken
+     */
+    public void takeNotesFrom(NoteStore other) {
+        this.pitches = other.pitches;
+        this.startTicks = other.startTicks;
+        this.durations = other.durations;
+        this.channels = other.channels;
+        this.trackIndices = other.trackIndices;
+        this.volumes = other.volumes;
+        this.live = other.live;
+        this.freeIds = other.freeIds;
+        this.numFreeIds = other.numFreeIds;
+        this.idLimit = other.idLimit;
+        this.size = other.size;
+
+        NoteStore empty = new NoteStore();
+        other.pitches = empty.pitches;
+        other.startTicks = empty.startTicks;
+        other.durations = empty.durations;
+        other.channels = empty.channels;
+        other.trackIndices = empty.trackIndices;
+        other.volumes = empty.volumes;
+        other.live = empty.live;
+        other.freeIds = empty.freeIds;
+        other.numFreeIds = 0;
+        other.idLimit = 0;
+        other.size = 0;
+    }
+
+    /**
+     * Doubles the length of every array.
+     */
+    private void grow() {
+        int capacity = this.pitches.length * 2;
+        this.pitches = Arrays.copyOf(this.pitches, capacity);
+        this.startTicks = Arrays.copyOf(this.startTicks, capacity);
+        this.durations = Arrays.copyOf(this.durations, capacity);
+        this.channels = Arrays.copyOf(this.channels, capacity);
+        this.trackIndices = Arrays.copyOf(this.trackIndices, capacity);
+        this.volumes = Arrays.copyOf(this.volumes, capacity);
+        this.live = Arrays.copyOf(this.live, capacity);
+        this.freeIds = Arrays.copyOf(this.freeIds, capacity);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                        Accessor Methods                                *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * @return the number of notes in the store
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Ids are always smaller than this number, so looping up to it
+     * visits every note.
+     *
+     * @return one more than the largest id in use
+     */
+    public int getIdLimit() {
+        return this.idLimit;
+    }
+
+    /**
+     * @param id a note id
+     * @return whether the id currently holds a note
+     */
+    public boolean isLive(int id) {
+        return this.live[id];
+    }
+
+    /**
+     * @param id the id of the note
+     * @return the pitch of the note
+     */
+    public int getPitch(int id) {
+        return this.pitches[id];
+    }
+
+    /**
+     * @param id the id of the note
+     * @return the starting tick of the note
+     */
+    public int getStartTick(int id) {
+        return this.startTicks[id];
+    }
+
+    /**
+     * @param id the id of the note
+     * @return the duration of the note in ticks
+     */
+    public int getDuration(int id) {
+        return this.durations[id];
+    }
+
+    /**
+     * @param id the id of the note
+     * @return the channel of the note
+     */
+    public int getChannel(int id) {
+        return this.channels[id];
+    }
+
+    /**
+     * @param id the id of the note
+     * @return the track index of the note
+     */
+    public int getTrackIndex(int id) {
+        return this.trackIndices[id];
+    }
+
+    /**
+     * @param id the id of the note
+     * @return the volume of the note
+     */
+    public int getVolume(int id) {
+        return this.volumes[id];
+    }
+
+    /**
+     * Finds the tick at which the last note in the store stops.
+     *
+     * @return the stop tick, 0 if the store is empty
+     */
+    public int getStopTick() {
+        int stopTick = 0;
+        for (int id = 0; id < this.idLimit; id++) {
+            if (this.live[id]) {
+                stopTick = Math.max(stopTick, this.startTicks[id] + this.durations[id]);
+            }
+        }
+        return stopTick;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                        Manipulation Methods                            *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * @param id    the id of the note
+     * @param pitch the new pitch of the note
+     */
+    public void setPitch(int id, int pitch) {
+        this.pitches[id] = pitch;
+    }
+
+    /**
+     * @param id        the id of the note
+     * @param startTick the new starting tick of the note
+     */
+    public void setStartTick(int id, int startTick) {
+        this.startTicks[id] = startTick;
+    }
+
+    /**
+     * @param id       the id of the note
+     * @param duration the new duration of the note in ticks
+     */
+    public void setDuration(int id, int duration) {
+        this.durations[id] = duration;
+    }
+
+    /**
+     * @param id      the id of the note
+     * @param channel the new channel of the note
+     */
+    public void setChannel(int id, int channel) {
+        this.channels[id] = channel;
+    }
+
+    /**
+     * @param id         the id of the note
+     * @param trackIndex the new track index of the note
+     */
+    public void setTrackIndex(int id, int trackIndex) {
+        this.trackIndices[id] = trackIndex;
+    }
+}
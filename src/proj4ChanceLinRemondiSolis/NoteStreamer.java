@@ -0,0 +1,542 @@
+/*
+ * File: NoteStreamer.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class plays a composition by streaming its notes to the
+ * synthesizer, instead of loading them all into a Sequence first.
+ *
+ * A scheduler thread asks for the notes of the composition a window of
+ * time at a time, in time order, staying LOOKAHEAD ahead of the
+ * playhead. The notes are read on the thread that edits them, so edits
+ * made while playing are heard once the playhead reaches them. Each
+ * note's messages are sent to the synthesizer just before they are due,
+ * time stamped so they sound exactly on time. Only the notes of the
+ * coming window and the notes sounding are held, so playing starts at
+ * once and takes the same memory however long the composition is.
+ *
+ * Since each window is looked up by its ticks in the NoteIndex, playing
+ * can start from any tick, jump to another while playing, keep to a
+ * region of the composition, loop it, or play only some of its notes,
+ * without reading the notes before it.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class NoteStreamer implements Playhead {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * How far ahead of the playhead notes are read, in microseconds.
+     */
+    private static final long LOOKAHEAD = 3000000;
+
+    /**
+     * How long before it is due a message is sent, in microseconds.
+     */
+    private static final long SEND_AHEAD = 50000;
+
+    /**
+     * How long after playing is asked for the first tick sounds, in
+     * microseconds, so the first notes can be sent on time.
+     */
+    private static final long START_DELAY = 50000;
+
+    /**
+     * The longest the scheduler sleeps between checks, in milliseconds.
+     */
+    private static final long MAXIMUM_SLEEP = 20;
+
+    /**
+     * The controller number of the All Notes Off message.
+     */
+    private static final int ALL_NOTES_OFF = 123;
+
+    /**
+     * The player whose synthesizer plays the notes
+     */
+    private MidiPlayer midiPlayer;
+
+    /**
+     * The store holding the notes
+     */
+    private NoteStore store;
+
+    /**
+     * Finds the notes in each window
+     */
+    private NoteIndex noteIndex;
+
+    /**
+     * Runs tasks on the thread that edits the notes
+     */
+    private Executor editThread;
+
+    /**
+     * The length of a tick in microseconds
+     */
+    private double tickLength;
+
+    /**
+     * What is being played, null when not playing
+     */
+    private volatile Playback playback;
+
+    /**
+     * Whether the synthesizer's clock is being used, rather than the
+     * system's when there is no synthesizer
+     */
+    private volatile boolean isUsingSynthesizerClock;
+
+    /**
+     * The time on the synthesizer's clock the notes of the last playback
+     * were silenced at, in microseconds, so the next one starts after it
+     */
+    private volatile long silenceTime = -1;
+
+    /**
+     * Constructor
+     *
+     * @param midiPlayer     the player whose synthesizer plays the notes
+     * @param store          the store holding the notes
+     * @param noteIndex      finds the notes to play
+     * @param editThread     runs tasks on the thread that edits the notes
+     * @param resolution     the number of ticks per beat
+     * @param beatsPerMinute the number of beats per minute
+     */
+    public NoteStreamer(MidiPlayer midiPlayer, NoteStore store, NoteIndex noteIndex,
+                        Executor editThread, int resolution, int beatsPerMinute) {
+        this.midiPlayer = midiPlayer;
+        this.store = store;
+        this.noteIndex = noteIndex;
+        this.editThread = editThread;
+        this.tickLength = 60000000.0 / (beatsPerMinute * resolution);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Playing                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Starts playing the composition from the beginning, stopping it
+     * first if it is playing.
+     */
+    public void play() {
+        play(0, 0, Integer.MAX_VALUE, false, null);
+    }
+
+    /**
+     * Starts playing part of the composition, stopping it first if it is
+     * playing.
+     *
+     * @param startTick   the tick to start playing at
+     * @param regionStart the first tick of the region played
+     * @param regionEnd   the tick after the region played; only notes
+     *                    starting before it are played
+     * @param isLooping   whether to go back to regionStart at regionEnd,
+     *                    until stopped, rather than stopping at regionEnd
+     * @param playedNotes the ids of the notes to play, or null to play
+     *                    every note; must not change while playing
+     * @throws IllegalArgumentException if startTick is not in the region,
+     *                                  or a looped region is empty
+     */
+    public void play(int startTick, int regionStart, int regionEnd, boolean isLooping,
+                     BitSet playedNotes) {
+        if (startTick < regionStart || startTick >= regionEnd) {
+            throw new IllegalArgumentException("Start tick " + startTick
+                    + " is not in " + regionStart + " to " + regionEnd);
+        }
+        if (isLooping && regionEnd == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A looped region needs an end");
+        }
+        Playback previous = this.playback;
+        stop();
+        Playback next = new Playback(startTick, regionStart, regionEnd, isLooping,
+                playedNotes);
+        next.previousScheduler = previous == null ? null : previous.scheduler;
+        next.scheduler = new Thread(() -> stream(next), "NoteStreamer");
+        next.scheduler.setDaemon(true);
+        this.playback = next;
+        next.scheduler.start();
+    }
+
+    /**
+     * Jumps to another tick while playing, keeping to the same region and
+     * notes. Does nothing if not playing.
+     *
+     * @param tick the tick to play from, moved into the region if it is
+     *             outside it
+     */
+    public void seek(int tick) {
+        Playback current = this.playback;
+        if (current != null) {
+            play(Math.max(current.regionStart, Math.min(current.regionEnd - 1, tick)),
+                    current.regionStart, current.regionEnd, current.isLooping,
+                    current.playedNotes);
+        }
+    }
+
+    /**
+     * Stops playing and silences the notes sounding.
+     */
+    public void stop() {
+        Playback current = this.playback;
+        this.playback = null;
+        if (current != null) {
+            current.scheduler.interrupt();
+        }
+    }
+
+    /**
+     * Gets the tick being heard, from the clock the notes are timed by.
+     *
+     * @return the tick being heard, 0 when not playing
+     */
+    @Override
+    public double getAudibleTickPosition() {
+        Playback current = this.playback;
+        if (current == null) {
+            return 0;
+        }
+        long latency = this.isUsingSynthesizerClock ? this.midiPlayer.getLatency() : 0;
+        double elapsed = (getTime() - latency - current.startTime) / this.tickLength;
+        return current.getTick(Math.max(0, elapsed));
+    }
+
+    /**
+     * Indicates whether the composition is being played
+     *
+     * @return if is playing or not
+     */
+    @Override
+    public boolean getIsPlaying() {
+        return this.playback != null;
+    }
+
+    /**
+     * Gets the time on the clock the notes are timed by.
+     *
+     * @return the time in microseconds
+     */
+    private long getTime() {
+        if (this.isUsingSynthesizerClock) {
+            return this.midiPlayer.getSynthesizerMicrosecondPosition();
+        }
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                               Scheduling                               *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Runs on the scheduler thread: reads the notes a window ahead of the
+     * playhead and sends their messages as they come due, until the
+     * region ends or playing is stopped.
+     *
+     * Messages are timed by the ticks elapsed since playing started,
+     * which keep counting up when a looped region starts over.
+     *
+     * @param current what is being played
+     */
+    private void stream(Playback current) {
+        Receiver receiver = null;
+        // each message waiting to be sent is packed as its elapsed tick,
+        // then 0 for NOTE_OFF or 1 for NOTE_ON, then its channel, pitch and
+        // volume, so at the same tick notes are stopped before others start
+        PriorityQueue<Long> messages = new PriorityQueue<>();
+        ShortMessage message = new ShortMessage();
+        // messages are sent up to SEND_AHEAD early and held by the
+        // synthesizer until due, so a note sent just before stopping may
+        // not have started yet
+        long lastSendTime = Long.MIN_VALUE;
+        try {
+            if (current.previousScheduler != null) {
+                // let the playback before silence its notes first
+                current.previousScheduler.join();
+            }
+            this.midiPlayer.awaitReady();
+            receiver = this.midiPlayer.getSynthesizerReceiver();
+            this.isUsingSynthesizerClock = receiver != null;
+            if (receiver != null) {
+                setPrograms(receiver, message);
+            }
+            current.startTime = Math.max(getTime() + START_DELAY, this.silenceTime + 1);
+
+            int windowLength = (int) Math.ceil(LOOKAHEAD / 2 / this.tickLength);
+            int readUntil = 0;
+            long readEnd = Long.MAX_VALUE;
+            while (this.playback == current) {
+                long now = getTime();
+                int tickDue = (int) ((now + SEND_AHEAD - current.startTime) / this.tickLength);
+                int tickAhead = (int) ((now + LOOKAHEAD - current.startTime) / this.tickLength);
+                if (readUntil <= tickAhead && readUntil < readEnd) {
+                    int lastStart = readWindow(current, readUntil,
+                            readUntil + windowLength, messages);
+                    readUntil += windowLength;
+                    if (!current.isLooping) {
+                        readEnd = Math.min((long) current.regionEnd, lastStart + 1L)
+                                - current.startTick;
+                    }
+                }
+                if (messages.isEmpty() && readUntil >= readEnd) {
+                    break;
+                }
+                while (!messages.isEmpty() && (messages.peek() >>> 32) <= tickDue) {
+                    long packed = messages.poll();
+                    if (receiver != null) {
+                        lastSendTime = Math.max(lastSendTime,
+                                send(receiver, message, current, packed));
+                    }
+                }
+
+                long nextTick = messages.isEmpty() ? readUntil
+                        : Math.min(readUntil, messages.peek() >>> 32);
+                long wait = current.startTime + (long) (nextTick * this.tickLength)
+                        - SEND_AHEAD - getTime();
+                Thread.sleep(Math.max(1, Math.min(MAXIMUM_SLEEP, wait / 1000)));
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            // stopped while waiting
+        } finally {
+            if (receiver != null) {
+                this.silenceTime = silence(receiver, message, lastSendTime);
+            }
+            if (this.playback == current) {
+                this.playback = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the notes played in a window of elapsed ticks, on the thread
+     * that edits them, and queues their messages. A window crossing the
+     * end of a looped region is read in pieces, one for each time round.
+     *
+     * @param current  what is being played
+     * @param fromTick the first elapsed tick of the window
+     * @param toTick   the elapsed tick after the window
+     * @param messages the queue of messages to send
+     * @return the tick the last note of the composition starts at
+     * @throws InterruptedException if playing is stopped while waiting
+     * @throws ExecutionException   if the notes could not be read
+     */
+    private int readWindow(Playback current, int fromTick, int toTick,
+                           PriorityQueue<Long> messages)
+            throws InterruptedException, ExecutionException {
+        // the buffer is grown inside the task, so it is held in an array
+        long[][] window = {new long[64]};
+        int[] size = new int[1];
+        int lastStart = CompletableFuture.supplyAsync(() -> {
+            int elapsed = fromTick;
+            while (elapsed < toTick) {
+                int tick = (int) current.getTick(elapsed);
+                int pieceEnd = (int) Math.min((long) current.regionEnd,
+                        (long) tick + toTick - elapsed);
+                int offset = elapsed - tick;
+                this.noteIndex.forEachNoteStartingIn(tick, pieceEnd, (id) -> {
+                    if (current.playedNotes != null && !current.playedNotes.get(id)) {
+                        return;
+                    }
+                    if (size[0] + 2 > window[0].length) {
+                        window[0] = Arrays.copyOf(window[0], 2 * window[0].length);
+                    }
+                    int start = this.store.getStartTick(id);
+                    int duration = this.store.getDuration(id);
+                    if (current.isLooping) {
+                        duration = Math.min(duration, current.regionEnd - start);
+                    }
+                    long sound = ((long) this.store.getChannel(id) & 0xF) << 14
+                            | (this.store.getPitch(id) & 0x7F) << 7
+                            | (this.store.getVolume(id) & 0x7F);
+                    long elapsedStart = start + offset;
+                    window[0][size[0]++] = elapsedStart << 32 | 1L << 31 | sound;
+                    window[0][size[0]++] = (elapsedStart + duration) << 32 | sound;
+                });
+                if (!current.isLooping) {
+                    break;
+                }
+                elapsed += pieceEnd - tick;
+            }
+            return this.noteIndex.getLastStartTick();
+        }, this.editThread).get();
+        for (int i = 0; i < size[0]; i++) {
+            messages.add(window[0][i]);
+        }
+        return lastStart;
+    }
+
+    /**
+     * Sends a packed message, time stamped with when it is due.
+     *
+     * @param receiver the synthesizer's receiver
+     * @param message  the message to reuse
+     * @param current  what is being played
+     * @param packed   the packed message
+     * @return the time stamp the message was sent with
+     */
+    private long send(Receiver receiver, ShortMessage message, Playback current,
+                      long packed) {
+        boolean isNoteOn = (packed & (1L << 31)) != 0;
+        int channel = (int) (packed >> 14) & 0xF;
+        int pitch = (int) (packed >> 7) & 0x7F;
+        int volume = (int) packed & 0x7F;
+        long time = current.startTime + (long) ((packed >>> 32) * this.tickLength);
+        try {
+            message.setMessage(isNoteOn ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF,
+                    channel, pitch, volume);
+            receiver.send(message, time);
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+        return time;
+    }
+
+    /**
+     * Gives each channel its instrument, since the notes do not go
+     * through the sequence that holds the program changes.
+     *
+     * @param receiver the synthesizer's receiver
+     * @param message  the message to reuse
+     */
+    private static void setPrograms(Receiver receiver, ShortMessage message) {
+        try {
+            for (int channel = 0; channel < Instruments.NUM_CHANNELS; channel++) {
+                message.setMessage(ShortMessage.PROGRAM_CHANGE, channel,
+                        Instruments.getProgram(channel), 0);
+                receiver.send(message, -1);
+            }
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops every note sounding on every channel at once, and again after
+     * the last message sent, so notes the synthesizer is still holding
+     * are stopped too once they start.
+     *
+     * @param receiver     the synthesizer's receiver
+     * @param message      the message to reuse
+     * @param lastSendTime the time stamp of the last message sent
+     * @return the time stamp the notes are all silenced at
+     */
+    private static long silence(Receiver receiver, ShortMessage message,
+                                long lastSendTime) {
+        long time = lastSendTime == Long.MIN_VALUE ? -1 : lastSendTime + 1;
+        try {
+            for (int channel = 0; channel < Instruments.NUM_CHANNELS; channel++) {
+                message.setMessage(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0);
+                receiver.send(message, -1);
+                if (time >= 0) {
+                    receiver.send(message, time);
+                }
+            }
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+        return time;
+    }
+
+    /**
+     * What is being played: where it started, the region it keeps to and
+     * the notes it plays.
+     */
+    private static class Playback {
+
+        /**
+         * The tick playing started at
+         */
+        final int startTick;
+
+        /**
+         * The first tick of the region played
+         */
+        final int regionStart;
+
+        /**
+         * The tick after the region played
+         */
+        final int regionEnd;
+
+        /**
+         * Whether the region starts over when it ends
+         */
+        final boolean isLooping;
+
+        /**
+         * The ids of the notes played, or null for every note
+         */
+        final BitSet playedNotes;
+
+        /**
+         * The thread sending the notes
+         */
+        Thread scheduler;
+
+        /**
+         * The thread that sent the notes of the playback before, or null
+         */
+        Thread previousScheduler;
+
+        /**
+         * The time on the clock that startTick sounds at, in
+         * microseconds; until the scheduler knows it, the playhead is
+         * held at startTick
+         */
+        volatile long startTime = Long.MAX_VALUE;
+
+        Playback(int startTick, int regionStart, int regionEnd, boolean isLooping,
+                 BitSet playedNotes) {
+            this.startTick = startTick;
+            this.regionStart = regionStart;
+            this.regionEnd = regionEnd;
+            this.isLooping = isLooping;
+            this.playedNotes = playedNotes;
+        }
+
+        /**
+         * @param elapsed the ticks elapsed since playing started
+         * @return the tick of the composition reached
+         */
+        double getTick(double elapsed) {
+            if (!this.isLooping) {
+                return this.startTick + elapsed;
+            }
+            int length = this.regionEnd - this.regionStart;
+            return this.regionStart + (this.startTick - this.regionStart + elapsed) % length;
+        }
+    }
+}
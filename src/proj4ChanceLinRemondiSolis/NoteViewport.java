@@ -0,0 +1,525 @@
+/*
+ * File: NoteViewport.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import javafx.beans.InvalidationListener;
+import javafx.collections.ObservableList;
+import javafx.geometry.Bounds;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Rectangle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * This class keeps scene graph nodes in the composition pane only for
+ * the part of the composition visible in the ScrollPane.
+ *
+ * The staff lines span just the visible part plus a margin on each side,
+ * and only the notes in that area are shown with a Rectangle. As the
+ * user scrolls, rectangles of notes leaving the area are reused for the
+ * notes coming into it. The composition pane is made wider whenever the
+ * notes or the user's scrolling reach near its end, so the composition
+ * has no fixed length.
+ *
+ * While notes are being moved, their rectangles are hidden and copies
+ * of them are shown in a group of their own, so the whole move is shown
+ * with a single translate rather than by moving each rectangle.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class NoteViewport {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * How far past each side of the visible area nodes are kept, so that
+     * small scrolls do not need any to be created.
+     */
+    private static final double OVERSCAN = 200;
+
+    /**
+     * The smallest width of the composition pane.
+     */
+    private static final double MINIMUM_WIDTH = 2000;
+
+    /**
+     * How much empty space to leave after the last note or the visible
+     * area when the composition pane is made wider.
+     */
+    private static final double END_MARGIN = 1000;
+
+    /**
+     * The number of staff lines, one above every pitch row but the last.
+     */
+    private static final int NUM_STAFF_LINES = 127;
+
+    /**
+     * The height of the composition: 128 pitch rows of 10 pixels.
+     */
+    private static final double SHEET_HEIGHT = 1280;
+
+    /**
+     * The scroll pane showing the composition
+     */
+    private ScrollPane scrollPane;
+
+    /**
+     * The composition pane the nodes are placed in
+     */
+    private Pane composition;
+
+    /**
+     * Finds the notes in the visible area
+     */
+    private NoteIndex noteIndex;
+
+    /**
+     * The color of each channel's notes
+     */
+    private Paint[] channelColors;
+
+    /**
+     * The staff lines, one per row boundary, spanning the visible area
+     */
+    private ArrayList<Line> staffLines;
+
+    /**
+     * The notes currently shown with a rectangle
+     */
+    private Set<MusicalNote> shownNotes;
+
+    /**
+     * Rectangles no longer showing a note, kept to show the next one
+     */
+    private ArrayDeque<Rectangle> spareNoteBoxes;
+
+    /**
+     * Holds copies of the rectangles of the notes being moved, while they
+     * are
+     */
+    private Group movedNoteBoxes;
+
+    /**
+     * The copy shown for each note being moved whose rectangle is hidden
+     */
+    private IdentityHashMap<MusicalNote, Rectangle> movedNoteCopies;
+
+    /**
+     * Whether notes are being moved
+     */
+    private boolean isMovingNotes;
+
+    /**
+     * Whether notes and staff lines are shown as nodes, rather than drawn
+     * on a canvas
+     */
+    private boolean isShowingNodes;
+
+    /**
+     * The area nodes are kept for: the visible area plus the overscan
+     */
+    private double minX, minY, maxX, maxY;
+
+    /**
+     * Constructor
+     *
+     * @param scrollPane    the scroll pane showing the composition, or null
+     *                      to show all of it
+     * @param composition   the composition pane to show the nodes in
+     * @param noteIndex     finds the notes in an area
+     * @param channelColors the color of each channel's notes
+     */
+    public NoteViewport(ScrollPane scrollPane, Pane composition,
+                        NoteIndex noteIndex, Paint[] channelColors) {
+        this.scrollPane = scrollPane;
+        this.composition = composition;
+        this.noteIndex = noteIndex;
+        this.channelColors = channelColors;
+        this.shownNotes = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.spareNoteBoxes = new ArrayDeque<>();
+        this.staffLines = new ArrayList<>();
+        this.movedNoteCopies = new IdentityHashMap<>();
+        for (int i = 0; i < NUM_STAFF_LINES; i++) {
+            Line staffLine = new Line(0, i * 10, 0, i * 10);
+            staffLine.getStyleClass().add("staffLine");
+            this.staffLines.add(staffLine);
+        }
+        this.composition.setPrefWidth(MINIMUM_WIDTH);
+
+        if (this.scrollPane != null) {
+            InvalidationListener viewportListener = (observable) -> update();
+            this.scrollPane.viewportBoundsProperty().addListener(viewportListener);
+            this.scrollPane.hvalueProperty().addListener(viewportListener);
+            this.scrollPane.vvalueProperty().addListener(viewportListener);
+        }
+        setShowingNodes(true);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                        Changes to the notes                            *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Shows a new note if it is in the visible area.
+     *
+     * @param note the note added to the composition
+     */
+    public void noteAdded(MusicalNote note) {
+        noteChanged(note);
+    }
+
+    /**
+     * Stops showing a note that is being deleted.
+     *
+     * @param note the note removed from the composition
+     */
+    public void noteRemoved(MusicalNote note) {
+        if (this.shownNotes.remove(note)) {
+            hideNote(note);
+        }
+    }
+
+    /**
+     * Stops showing many notes being deleted at once. The children of
+     * the composition are replaced in one go by those kept, since taking
+     * each rectangle out would search the children for it, and even
+     * taking them out together takes more than twice as long.
+     *
+     * @param notes the notes removed from the composition
+     */
+    public void notesRemoved(Collection<MusicalNote> notes) {
+        Set<Rectangle> noteBoxes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (MusicalNote note : notes) {
+            Rectangle noteBox = note.getNoteBox();
+            if (this.shownNotes.remove(note) && noteBox != null) {
+                noteBoxes.add(noteBox);
+                dropMovedCopy(note);
+                note.setNoteBox(null);
+                this.spareNoteBoxes.push(noteBox);
+            }
+        }
+        ObservableList<Node> children = this.composition.getChildren();
+        if (noteBoxes.isEmpty()) {
+            return;
+        }
+        ArrayList<Node> keptChildren = new ArrayList<>(children.size() - noteBoxes.size());
+        for (Node child : children) {
+            if (!noteBoxes.contains(child)) {
+                keptChildren.add(child);
+            }
+        }
+        children.setAll(keptChildren);
+    }
+
+    /**
+     * Shows or stops showing a note that has moved or been resized,
+     * depending on whether it is still in the visible area.
+     *
+     * @param note the note that changed
+     */
+    public void noteChanged(MusicalNote note) {
+        growToFit(note.getStartTick() + note.getDuration() + END_MARGIN);
+        if (!this.isShowingNodes) {
+            return;
+        }
+        if (isInArea(note)) {
+            if (this.shownNotes.add(note)) {
+                showNote(note);
+            }
+        } else {
+            noteRemoved(note);
+        }
+    }
+
+    /**
+     * Stops showing every note after all the notes have been replaced,
+     * then shows the new ones in the visible area.
+     *
+     * @param stopTick the tick the last of the new notes ends at
+     */
+    public void reset(int stopTick) {
+        for (MusicalNote note : this.shownNotes) {
+            hideNote(note);
+        }
+        this.shownNotes.clear();
+        growToFit(stopTick + END_MARGIN);
+        update();
+    }
+
+    /**
+     * Switches between showing the staff and the notes as nodes and
+     * showing none of them, for when they are drawn some other way.
+     *
+     * @param showingNodes whether to show the notes and staff as nodes
+     */
+    public void setShowingNodes(boolean showingNodes) {
+        this.isShowingNodes = showingNodes;
+        if (showingNodes) {
+            this.composition.getChildren().addAll(0, this.staffLines);
+            update();
+        } else {
+            this.composition.getChildren().removeAll(this.staffLines);
+            for (MusicalNote note : this.shownNotes) {
+                hideNote(note);
+            }
+            this.shownNotes.clear();
+        }
+    }
+
+    /**
+     * Starts showing notes being moved, by hiding the rectangles of those
+     * that are shown and showing copies of them in a group of their own.
+     *
+     * The rectangles are copied rather than moved into the group, since
+     * taking many children out of a pane takes time growing with the
+     * square of their number.
+     *
+     * @param notes the notes being moved
+     */
+    public void startMovingNotes(Collection<MusicalNote> notes) {
+        if (this.isMovingNotes) {
+            return;
+        }
+        this.isMovingNotes = true;
+        ArrayList<Rectangle> copies = new ArrayList<>();
+        for (MusicalNote note : notes) {
+            if (note.getNoteBox() != null) {
+                copies.add(hideForMove(note));
+            }
+        }
+        this.movedNoteBoxes = new Group();
+        this.movedNoteBoxes.getChildren().setAll(copies);
+        this.composition.getChildren().add(this.movedNoteBoxes);
+    }
+
+    /**
+     * Shows the notes being moved offset from where they are.
+     *
+     * @param dx how far they have been moved horizontally
+     * @param dy how far they have been moved vertically
+     */
+    public void showMovedNotes(double dx, double dy) {
+        this.movedNoteBoxes.setTranslateX(dx);
+        this.movedNoteBoxes.setTranslateY(dy);
+    }
+
+    /**
+     * Stops showing notes being moved, dropping the copies and showing
+     * their rectangles again. The notes are then changed to where they
+     * were moved to.
+     */
+    public void stopMovingNotes() {
+        if (!this.isMovingNotes) {
+            return;
+        }
+        this.isMovingNotes = false;
+        // the group is dropped whole, so its children never need removing
+        this.composition.getChildren().remove(this.movedNoteBoxes);
+        this.movedNoteBoxes = null;
+        for (MusicalNote note : this.movedNoteCopies.keySet()) {
+            note.getNoteBox().setVisible(true);
+        }
+        this.movedNoteCopies.clear();
+    }
+
+    /**
+     * Hides the rectangle of a note being moved and makes a copy of it
+     * to show the move with.
+     *
+     * @param note the note whose rectangle to hide
+     * @return the copy
+     */
+    private Rectangle hideForMove(MusicalNote note) {
+        Rectangle noteBox = note.getNoteBox();
+        Rectangle copy = new Rectangle(noteBox.getX(), noteBox.getY(),
+                noteBox.getWidth(), noteBox.getHeight());
+        copy.getStyleClass().add("note");
+        copy.setFill(noteBox.getFill());
+        copy.setStroke(noteBox.getStroke());
+        copy.setStrokeWidth(noteBox.getStrokeWidth());
+        noteBox.setVisible(false);
+        this.movedNoteCopies.put(note, copy);
+        return copy;
+    }
+
+    /**
+     * Drops the copy of a note being moved, when the note's rectangle is
+     * taken away to be reused, and shows the rectangle again.
+     *
+     * @param note the note whose rectangle is taken away
+     */
+    private void dropMovedCopy(MusicalNote note) {
+        Rectangle copy = this.movedNoteCopies.remove(note);
+        if (copy != null) {
+            this.movedNoteBoxes.getChildren().remove(copy);
+        }
+        note.getNoteBox().setVisible(true);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                        Following the viewport                          *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Widens the composition if the user has scrolled near its end, then
+     * brings the staff and the shown notes in line with the visible area.
+     */
+    private void update() {
+        double visibleMinX = 0;
+        double visibleMinY = 0;
+        double visibleMaxX = Double.MAX_VALUE;
+        double visibleMaxY = SHEET_HEIGHT;
+        if (this.scrollPane != null) {
+            Bounds viewport = this.scrollPane.getViewportBounds();
+            visibleMinX = -viewport.getMinX();
+            visibleMinY = -viewport.getMinY();
+            visibleMaxX = visibleMinX + viewport.getWidth();
+            visibleMaxY = visibleMinY + viewport.getHeight();
+            if (visibleMaxX > this.composition.getPrefWidth() - OVERSCAN) {
+                growToFit(visibleMaxX + END_MARGIN);
+            }
+        }
+
+        this.minX = Math.max(0, visibleMinX - OVERSCAN);
+        this.minY = Math.max(0, visibleMinY - OVERSCAN);
+        this.maxX = visibleMaxX + OVERSCAN;
+        this.maxY = Math.min(SHEET_HEIGHT, visibleMaxY + OVERSCAN);
+        if (!this.isShowingNodes) {
+            return;
+        }
+
+        for (Line staffLine : this.staffLines) {
+            staffLine.setStartX(this.minX);
+            staffLine.setEndX(Math.min(this.maxX, this.composition.getPrefWidth()));
+        }
+
+        Set<MusicalNote> nextShownNotes =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        nextShownNotes.addAll(this.noteIndex.getNotesInArea(
+                this.minX, this.minY, this.maxX, this.maxY));
+        // free the rectangles first so the new notes can reuse them
+        for (MusicalNote note : this.shownNotes) {
+            if (!nextShownNotes.contains(note)) {
+                hideNote(note);
+            }
+        }
+        for (MusicalNote note : nextShownNotes) {
+            if (!this.shownNotes.contains(note)) {
+                showNote(note);
+            }
+        }
+        this.shownNotes = nextShownNotes;
+    }
+
+    /**
+     * Checks whether a note touches the area nodes are kept for, the same
+     * way the note index does.
+     *
+     * @param note the note to check
+     * @return whether the note should be shown
+     */
+    private boolean isInArea(MusicalNote note) {
+        double top = (127 - note.getPitch()) * 10;
+        return note.getStartTick() <= this.maxX &&
+                note.getStartTick() + note.getDuration() >= this.minX &&
+                top <= this.maxY && top + 10 >= this.minY;
+    }
+
+    /**
+     * Makes the composition pane at least the given width, keeping the
+     * same part of it in view.
+     *
+     * @param width the width the composition needs
+     */
+    private void growToFit(double width) {
+        double oldWidth = this.composition.getPrefWidth();
+        if (width <= oldWidth) {
+            return;
+        }
+        this.composition.setPrefWidth(width);
+        if (this.scrollPane == null) {
+            return;
+        }
+        double viewportWidth = this.scrollPane.getViewportBounds().getWidth();
+        double scrollX = -this.scrollPane.getViewportBounds().getMinX();
+        // the scroll bar value is a fraction of the scrollable width, so
+        // it is scaled to keep the view from jumping towards the new end
+        if (width > viewportWidth) {
+            this.scrollPane.setHvalue(Math.min(1, scrollX / (width - viewportWidth)));
+        }
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                           Note rectangles                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Gives a note a rectangle, reusing a spare one if there is one.
+     *
+     * @param note the note to show
+     */
+    private void showNote(MusicalNote note) {
+        Rectangle noteBox = this.spareNoteBoxes.poll();
+        if (noteBox == null) {
+            noteBox = new Rectangle();
+            noteBox.getStyleClass().add("note");
+        }
+        noteBox.setFill(this.channelColors[note.getChannel()]);
+        note.setNoteBox(noteBox);
+        this.composition.getChildren().add(noteBox);
+        // notes scrolled into view while notes are moved move with them
+        if (this.isMovingNotes && note.isSelected()
+                && !this.movedNoteCopies.containsKey(note)) {
+            this.movedNoteBoxes.getChildren().add(hideForMove(note));
+        }
+    }
+
+    /**
+     * Takes a note's rectangle away and keeps it for reuse.
+     *
+     * @param note the note to stop showing
+     */
+    private void hideNote(MusicalNote note) {
+        Rectangle noteBox = note.getNoteBox();
+        if (noteBox != null) {
+            this.composition.getChildren().remove(noteBox);
+            dropMovedCopy(note);
+            note.setNoteBox(null);
+            this.spareNoteBoxes.push(noteBox);
+        }
+    }
+}
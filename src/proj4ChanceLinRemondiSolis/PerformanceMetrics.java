@@ -0,0 +1,485 @@
+/*
+ * File: PerformanceMetrics.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures where the time goes while editing and playing:
+ * how long songs take to build, hit tests, drag frames and starting to
+ * play, how many events each track holds, and how many animation frames
+ * are late or dropped.
+ *
+ * Each measurement is committed as a Flight Recorder event, so a
+ * recording of the running program sees it whenever the recording
+ * enables the event. While no recording does, an event costs about as
+ * much as creating an object.
+ *
+ * The measurements are also added to counters, shown by the metrics
+ * overlay and written to the metrics file, but only if the program is
+ * started with -Dcomposition.metrics=true. Since ENABLED is a constant,
+ * when it is off the counting is removed by the JIT.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class PerformanceMetrics {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Fields                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Whether the counters, the overlay and the metrics file are on
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("composition.metrics");
+
+    /**
+     * The time between animation frames, in nanoseconds
+     */
+    private static final long FRAME_LENGTH = 1000000000 / 60;
+
+    /**
+     * Building the song from all the notes
+     */
+    private static final Timer BUILD_SONG = new Timer("build song");
+
+    /**
+     * Finding the note at a location
+     */
+    private static final Timer HIT_TEST = new Timer("hit test");
+
+    /**
+     * Handling one mouse drag event
+     */
+    private static final Timer DRAG_FRAME = new Timer("drag frame");
+
+    /**
+     * From asking to play to the playhead first moving
+     */
+    private static final Timer PLAY_START = new Timer("play start");
+
+    /**
+     * Animation frames that came late
+     */
+    private static final LongAdder lateFrames = new LongAdder();
+
+    /**
+     * Animation frames that were skipped, going by how late frames were
+     */
+    private static final LongAdder droppedFrames = new LongAdder();
+
+    /**
+     * The number of events in each track, when the song was last built
+     */
+    private static volatile int[] trackSizes = new int[0];
+
+    /**
+     * Started when playing was last asked for, null once the playhead
+     * has moved
+     */
+    private static volatile PlayStartEvent playStart;
+
+    /**
+     * The time of the last animation frame, or 0 if not animating; only
+     * used on the JavaFX thread
+     */
+    private static long lastFrameTime;
+
+    /**
+     * There are no PerformanceMetrics objects.
+     */
+    private PerformanceMetrics() {
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Measuring                               *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Starts timing a build of the song.
+     *
+     * @return the measurement to pass to songBuilt
+     */
+    public static Measurement startSongBuild() {
+        return new BuildSongEvent().start();
+    }
+
+    /**
+     * Starts timing a hit test.
+     *
+     * @return the measurement to pass to hitTested
+     */
+    public static Measurement startHitTest() {
+        return new HitTestEvent().start();
+    }
+
+    /**
+     * Starts timing the handling of a mouse drag event.
+     *
+     * @return the measurement to pass to dragFrameHandled
+     */
+    public static Measurement startDragFrame() {
+        return new DragFrameEvent().start();
+    }
+
+    /**
+     * Records that a song was built.
+     *
+     * @param measurement from startSongBuild when the build started
+     * @param numNotes    the number of notes added
+     * @param midiPlayer  the player the song was built in
+     */
+    public static void songBuilt(Measurement measurement, int numNotes,
+                                 MidiPlayer midiPlayer) {
+        BuildSongEvent event = (BuildSongEvent) measurement;
+        event.end();
+        if (ENABLED) {
+            BUILD_SONG.record(event.timerStart);
+        }
+        if (event.shouldCommit()) {
+            event.numNotes = numNotes;
+            event.commit();
+        }
+        tracksChanged(midiPlayer);
+    }
+
+    /**
+     * Records how many events each track of a player holds.
+     *
+     * @param midiPlayer the player
+     */
+    public static void tracksChanged(MidiPlayer midiPlayer) {
+        int[] sizes = midiPlayer.getTrackSizes();
+        if (ENABLED) {
+            trackSizes = sizes;
+        }
+        for (int track = 0; track < sizes.length; track++) {
+            TrackEventsEvent event = new TrackEventsEvent();
+            if (event.shouldCommit()) {
+                event.track = track;
+                event.numEvents = sizes[track];
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Records that a location was hit tested.
+     *
+     * @param measurement from startHitTest when the hit test started
+     * @param isHit       whether a note was found
+     */
+    public static void hitTested(Measurement measurement, boolean isHit) {
+        HitTestEvent event = (HitTestEvent) measurement;
+        event.end();
+        if (ENABLED) {
+            HIT_TEST.record(event.timerStart);
+        }
+        if (event.shouldCommit()) {
+            event.isHit = isHit;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records that a mouse drag event was handled.
+     *
+     * @param measurement from startDragFrame when handling started
+     * @param numNotes    the number of notes being dragged
+     */
+    public static void dragFrameHandled(Measurement measurement, int numNotes) {
+        DragFrameEvent event = (DragFrameEvent) measurement;
+        event.end();
+        if (ENABLED) {
+            DRAG_FRAME.record(event.timerStart);
+        }
+        if (event.shouldCommit()) {
+            event.numNotes = numNotes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records that playing was asked for.
+     */
+    public static void playRequested() {
+        playStart = (PlayStartEvent) new PlayStartEvent().start();
+    }
+
+    /**
+     * Records that the playhead moved, so the first time after playing
+     * was asked for, playing has started.
+     */
+    public static void playheadMoved() {
+        PlayStartEvent event = playStart;
+        if (event == null) {
+            return;
+        }
+        playStart = null;
+        event.end();
+        if (ENABLED) {
+            PLAY_START.record(event.timerStart);
+        }
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+
+    /**
+     * Records an animation frame, counting it late if it came more than
+     * half a frame after it was due.
+     *
+     * @param now the time of the frame, in nanoseconds
+     */
+    public static void animationFrame(long now) {
+        long gap = now - lastFrameTime;
+        if (lastFrameTime != 0 && gap > FRAME_LENGTH * 3 / 2) {
+            long dropped = (gap + FRAME_LENGTH / 2) / FRAME_LENGTH - 1;
+            if (ENABLED) {
+                lateFrames.increment();
+                droppedFrames.add(dropped);
+            }
+            LateFrameEvent event = new LateFrameEvent();
+            if (event.shouldCommit()) {
+                event.gap = gap;
+                event.droppedFrames = (int) dropped;
+                event.commit();
+            }
+        }
+        lastFrameTime = now;
+    }
+
+    /**
+     * Records that the animation stopped, so the wait until it starts
+     * again is not taken for a late frame.
+     */
+    public static void animationStopped() {
+        lastFrameTime = 0;
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Reporting                               *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Describes the measurements so far, a line for each.
+     *
+     * @return the report
+     */
+    public static String getReport() {
+        if (!ENABLED) {
+            return "metrics off; start with -Dcomposition.metrics=true";
+        }
+        return BUILD_SONG + "\n" + HIT_TEST + "\n" + DRAG_FRAME + "\n" + PLAY_START
+                + "\nlate frames: " + lateFrames.sum()
+                + ", dropped frames: " + droppedFrames.sum()
+                + "\ntrack events at last build: " + Arrays.toString(trackSizes);
+    }
+
+    /**
+     * Starts adding the report to a file every so often, on a daemon
+     * thread. Does nothing if measuring is off.
+     *
+     * @param file   the file to add to
+     * @param period the seconds between reports
+     */
+    public static void startDumping(File file, long period) {
+        if (!ENABLED) {
+            return;
+        }
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(
+                (runnable) -> {
+                    Thread thread = new Thread(runnable, "PerformanceMetrics");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        dumper.scheduleAtFixedRate(() -> {
+            try (Writer writer = new FileWriter(file, true)) {
+                writer.write(LocalDateTime.now() + "\n" + getReport() + "\n\n");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Counters                                *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Counts how many times something took, how long it took in all and
+     * the longest it took. Can be recorded to from any thread.
+     */
+    private static class Timer {
+
+        /**
+         * What is timed
+         */
+        private final String name;
+
+        /**
+         * The number of times recorded
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * The total time recorded, in nanoseconds
+         */
+        private final LongAdder totalTime = new LongAdder();
+
+        /**
+         * The longest time recorded, in nanoseconds
+         */
+        private final LongAccumulator maximumTime = new LongAccumulator(Math::max, 0);
+
+        Timer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param startTime when the timed thing started, from nanoTime
+         */
+        void record(long startTime) {
+            long time = System.nanoTime() - startTime;
+            this.count.increment();
+            this.totalTime.add(time);
+            this.maximumTime.accumulate(time);
+        }
+
+        @Override
+        public String toString() {
+            long count = this.count.sum();
+            double mean = count == 0 ? 0 : this.totalTime.sum() / 1e6 / count;
+            return String.format("%s: %d, mean %.3f ms, max %.3f ms", this.name, count,
+                    mean, this.maximumTime.get() / 1e6);
+        }
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                          Flight Recorder events                        *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Something being timed. The event's own begin and end give its
+     * duration in a recording; the start time is kept as well, for the
+     * counters.
+     */
+    abstract static class Measurement extends Event {
+        /**
+         * When the timed thing started, from nanoTime, or 0 if the
+         * counters are off
+         */
+        transient long timerStart;
+
+        /**
+         * @return this measurement, started
+         */
+        Measurement start() {
+            if (ENABLED) {
+                this.timerStart = System.nanoTime();
+            }
+            begin();
+            return this;
+        }
+    }
+
+    @Name("proj4ChanceLinRemondiSolis.BuildSong")
+    @Label("Build Song")
+    @Category({"Composition", "Playback"})
+    @Description("The notes were added to the sequence in one batch")
+    private static class BuildSongEvent extends Measurement {
+        @Label("Notes")
+        int numNotes;
+    }
+
+    @Name("proj4ChanceLinRemondiSolis.TrackEvents")
+    @Label("Track Events")
+    @Category({"Composition", "Playback"})
+    @Description("The number of events in a track after the song was built")
+    private static class TrackEventsEvent extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Events")
+        int numEvents;
+    }
+
+    @Name("proj4ChanceLinRemondiSolis.PlayStart")
+    @Label("Play Start")
+    @Category({"Composition", "Playback"})
+    @Description("The time from asking to play to the playhead first moving")
+    private static class PlayStartEvent extends Measurement {
+    }
+
+    @Name("proj4ChanceLinRemondiSolis.HitTest")
+    @Label("Hit Test")
+    @Category({"Composition", "Editing"})
+    @Description("A note was looked for at a location")
+    private static class HitTestEvent extends Measurement {
+        @Label("Hit")
+        boolean isHit;
+    }
+
+    @Name("proj4ChanceLinRemondiSolis.DragFrame")
+    @Label("Drag Frame")
+    @Category({"Composition", "Editing"})
+    @Description("A mouse drag event was handled")
+    private static class DragFrameEvent extends Measurement {
+        @Label("Notes")
+        int numNotes;
+    }
+
+    @Name("proj4ChanceLinRemondiSolis.LateFrame")
+    @Label("Late Frame")
+    @Category({"Composition", "Animation"})
+    @Description("An animation frame came late while playing")
+    private static class LateFrameEvent extends Event {
+        @Label("Gap")
+        @Timespan(Timespan.NANOSECONDS)
+        long gap;
+
+        @Label("Dropped Frames")
+        int droppedFrames;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * File: PianoRollCanvas.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.geometry.Bounds;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * This class draws the staff and the notes of a composition onto a
+ * Canvas instead of using a scene graph node for each of them.
+ *
+ * The canvas only covers the part of the composition visible in the
+ * ScrollPane and follows it as it scrolls. After an edit only the area
+ * that changed is redrawn, on the next pulse.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class PianoRollCanvas {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The height of a pitch row in pixels.
+     */
+    private static final int ROW_HEIGHT = 10;
+
+    /**
+     * The number of staff lines, one above every pitch row but the last.
+     */
+    private static final int NUM_STAFF_LINES = 127;
+
+    /**
+     * The opacity notes are drawn with, as in the style sheet.
+     */
+    private static final double NOTE_OPACITY = 0.5;
+
+    /**
+     * The canvas the composition is drawn on
+     */
+    private Canvas canvas;
+
+    /**
+     * The scroll pane showing the composition
+     */
+    private ScrollPane scrollPane;
+
+    /**
+     * The composition pane the canvas is placed in
+     */
+    private Pane composition;
+
+    /**
+     * Finds the notes to draw in an area
+     */
+    private NoteIndex noteIndex;
+
+    /**
+     * The color of each channel's notes
+     */
+    private Paint[] channelColors;
+
+    /**
+     * Redraws everything when the visible part of the composition changes
+     */
+    private InvalidationListener viewportListener;
+
+    /**
+     * The notes being moved or resized, drawn at their dragged location;
+     * null when no notes are being dragged
+     */
+    private Collection<MusicalNote> draggedNotes;
+
+    /**
+     * How far the dragged notes have been moved and widened
+     */
+    private double dragX, dragY, dragWidth;
+
+    /**
+     * The area waiting to be redrawn, empty when minX > maxX
+     */
+    private double dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+
+    /**
+     * Whether a redraw has been asked for on the next pulse
+     */
+    private boolean isRepaintScheduled;
+
+    /**
+     * Constructor
+     *
+     * @param scrollPane    the scroll pane showing the composition
+     * @param composition   the composition pane to draw in
+     * @param noteIndex     finds the notes to draw in an area
+     * @param channelColors the color of each channel's notes
+     */
+    public PianoRollCanvas(ScrollPane scrollPane, Pane composition,
+                           NoteIndex noteIndex, Paint[] channelColors) {
+        this.canvas = new Canvas();
+        this.canvas.setManaged(false);
+        this.scrollPane = scrollPane;
+        this.composition = composition;
+        this.noteIndex = noteIndex;
+        this.channelColors = channelColors;
+        this.viewportListener = (observable) -> followViewport();
+        clearDirtyArea();
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                         Showing and hiding                             *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Puts the canvas under everything else in the composition pane and
+     * draws the visible part of the composition.
+     */
+    public void show() {
+        this.composition.getChildren().add(0, this.canvas);
+        this.scrollPane.viewportBoundsProperty().addListener(this.viewportListener);
+        this.scrollPane.hvalueProperty().addListener(this.viewportListener);
+        this.scrollPane.vvalueProperty().addListener(this.viewportListener);
+        followViewport();
+    }
+
+    /**
+     * Takes the canvas out of the composition pane.
+     */
+    public void hide() {
+        this.scrollPane.viewportBoundsProperty().removeListener(this.viewportListener);
+        this.scrollPane.hvalueProperty().removeListener(this.viewportListener);
+        this.scrollPane.vvalueProperty().removeListener(this.viewportListener);
+        this.composition.getChildren().remove(this.canvas);
+    }
+
+    /**
+     * Moves and sizes the canvas to cover the visible part of the
+     * composition, then redraws all of it.
+     */
+    private void followViewport() {
+        Bounds viewport = this.scrollPane.getViewportBounds();
+        this.canvas.relocate(-viewport.getMinX(), -viewport.getMinY());
+        this.canvas.setWidth(viewport.getWidth());
+        this.canvas.setHeight(viewport.getHeight());
+        invalidateAll();
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                           Redraw requests                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Asks for the area covered by a note to be redrawn.
+     *
+     * @param note the note that changed
+     */
+    public void invalidate(MusicalNote note) {
+        // include the whole stroke of a selected note
+        invalidate(note.getStartTick() - 2, (127 - note.getPitch()) * ROW_HEIGHT - 2,
+                note.getStartTick() + note.getDuration() + 2,
+                (128 - note.getPitch()) * ROW_HEIGHT + 2);
+    }
+
+    /**
+     * Asks for an area of the composition to be redrawn.
+     *
+     * @param minX the smallest x coordinate of the area
+     * @param minY the smallest y coordinate of the area
+     * @param maxX the biggest x coordinate of the area
+     * @param maxY the biggest y coordinate of the area
+     */
+    public void invalidate(double minX, double minY, double maxX, double maxY) {
+        this.dirtyMinX = Math.min(this.dirtyMinX, minX);
+        this.dirtyMinY = Math.min(this.dirtyMinY, minY);
+        this.dirtyMaxX = Math.max(this.dirtyMaxX, maxX);
+        this.dirtyMaxY = Math.max(this.dirtyMaxY, maxY);
+        if (!this.isRepaintScheduled) {
+            this.isRepaintScheduled = true;
+            Platform.runLater(this::repaint);
+        }
+    }
+
+    /**
+     * Asks for everything visible to be redrawn.
+     */
+    public void invalidateAll() {
+        invalidate(this.canvas.getLayoutX(), this.canvas.getLayoutY(),
+                this.canvas.getLayoutX() + this.canvas.getWidth(),
+                this.canvas.getLayoutY() + this.canvas.getHeight());
+    }
+
+    /**
+     * Sets the notes being moved or resized and how far they have been
+     * dragged. They are drawn at their dragged location until the drag
+     * is ended by passing null.
+     *
+     * @param notes     the notes being dragged, or null
+     * @param dx        how far the notes have moved horizontally
+     * @param dy        how far the notes have moved vertically
+     * @param dWidth    how much wider the notes have been made
+     */
+    public void setDraggedNotes(Collection<MusicalNote> notes, double dx, double dy,
+                                double dWidth) {
+        this.draggedNotes = notes;
+        this.dragX = dx;
+        this.dragY = dy;
+        this.dragWidth = dWidth;
+        invalidateAll();
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                               Drawing                                  *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Redraws the dirty area where it overlaps the canvas.
+     */
+    private void repaint() {
+        this.isRepaintScheduled = false;
+        double originX = this.canvas.getLayoutX();
+        double originY = this.canvas.getLayoutY();
+        double minX = Math.max(this.dirtyMinX, originX);
+        double minY = Math.max(this.dirtyMinY, originY);
+        double maxX = Math.min(this.dirtyMaxX, originX + this.canvas.getWidth());
+        double maxY = Math.min(this.dirtyMaxY, originY + this.canvas.getHeight());
+        clearDirtyArea();
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+
+        GraphicsContext graphics = this.canvas.getGraphicsContext2D();
+        graphics.save();
+        graphics.translate(-originX, -originY);
+        graphics.beginPath();
+        graphics.rect(minX, minY, maxX - minX, maxY - minY);
+        graphics.clip();
+        graphics.clearRect(minX, minY, maxX - minX, maxY - minY);
+
+        graphics.setStroke(Color.GRAY);
+        graphics.setLineWidth(1);
+        int firstLine = Math.max(0, (int) Math.ceil(minY / ROW_HEIGHT));
+        int lastLine = Math.min(NUM_STAFF_LINES - 1, (int) Math.floor(maxY / ROW_HEIGHT));
+        for (int line = firstLine; line <= lastLine; line++) {
+            graphics.strokeLine(minX, line * ROW_HEIGHT, maxX, line * ROW_HEIGHT);
+        }
+
+        boolean isDragging = this.draggedNotes != null;
+        for (MusicalNote note : this.noteIndex.getNotesInArea(minX, minY, maxX, maxY)) {
+            if (!(isDragging && note.isSelected())) {
+                drawNote(graphics, note, 0, 0, 0);
+            }
+        }
+        if (isDragging) {
+            for (MusicalNote note : this.draggedNotes) {
+                double x = note.getStartTick() + this.dragX;
+                double y = (127 - note.getPitch()) * ROW_HEIGHT + this.dragY;
+                if (x <= maxX && x + note.getDuration() + this.dragWidth >= minX &&
+                        y <= maxY && y + ROW_HEIGHT >= minY) {
+                    drawNote(graphics, note, this.dragX, this.dragY, this.dragWidth);
+                }
+            }
+        }
+        graphics.restore();
+    }
+
+    /**
+     * Draws one note the way the style sheet draws a note's rectangle:
+     * half transparent, stroked inside, red and thick when selected.
+     *
+     * @param graphics the canvas's graphics context
+     * @param note     the note to draw
+     * @param dx       how far to draw the note from its location
+     * @param dy       how far to draw the note from its location
+     * @param dWidth   how much wider to draw the note
+     */
+    private void drawNote(GraphicsContext graphics, MusicalNote note,
+                          double dx, double dy, double dWidth) {
+        double x = note.getStartTick() + dx;
+        double y = (127 - note.getPitch()) * ROW_HEIGHT + dy;
+        double width = Math.max(0, note.getDuration() + dWidth);
+        double strokeWidth = note.isSelected() ? 3 : 1;
+
+        graphics.setGlobalAlpha(NOTE_OPACITY);
+        graphics.setFill(this.channelColors[note.getChannel()]);
+        graphics.fillRect(x, y, width, ROW_HEIGHT);
+        graphics.setStroke(note.isSelected() ? Color.RED : Color.BLACK);
+        graphics.setLineWidth(strokeWidth);
+        graphics.strokeRect(x + strokeWidth / 2, y + strokeWidth / 2,
+                Math.max(0, width - strokeWidth), ROW_HEIGHT - strokeWidth);
+        graphics.setGlobalAlpha(1);
+    }
+
+    /**
+     * Marks that nothing is waiting to be redrawn.
+     */
+    private void clearDirtyArea() {
+        this.dirtyMinX = Double.POSITIVE_INFINITY;
+        this.dirtyMinY = Double.POSITIVE_INFINITY;
+        this.dirtyMaxX = Double.NEGATIVE_INFINITY;
+        this.dirtyMaxY = Double.NEGATIVE_INFINITY;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * File: Playhead.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+/**
+ * This interface is something that plays a composition and can tell
+ * where in it the music being heard is, for the TempoLine to follow.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public interface Playhead {
+
+    /**
+     * Gets the tick of the composition being heard right now.
+     *
+     * @return the tick being heard
+     */
+    double getAudibleTickPosition();
+
+    /**
+     * Indicates whether the composition is being played
+     *
+     * @return if is playing or not
+     */
+    boolean getIsPlaying();
+}
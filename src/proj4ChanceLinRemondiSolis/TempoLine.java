@@ -8,14 +8,16 @@
 
 package proj4ChanceLinRemondiSolis;
 
-import javafx.animation.Interpolator;
-import javafx.animation.TranslateTransition;
+import javafx.animation.AnimationTimer;
 import javafx.scene.shape.Line;
-import javafx.util.Duration;
 
 /**
  * This class is a syncable vertical progress line.
  *
+ * While playing, the line is moved once per frame to the tick the
+ * player is sounding, so it follows the music whatever the tempo and
+ * however long the piece is.
+ *
  * @author Graham Chance
  * @author Jenny Lin
  * @author Ana Sofia Solis Canales
@@ -38,9 +40,25 @@ public class TempoLine {
     private Line tempoLine;
 
     /**
-     * Holds a translate animation
+     * Moves the line on every frame while playing
+     */
+    private AnimationTimer tempoAnimation;
+
+    /**
+     * The player whose position the line follows, while playing
      */
-    private TranslateTransition tempoAnimation;
+    private Playhead playhead;
+
+    /**
+     * The tick the playhead was at in the first frame, to tell when it
+     * starts moving
+     */
+    private double firstTick;
+
+    /**
+     * The tick after which the line is hidden
+     */
+    private double stopTick;
 
     /**
      * Constructor
@@ -48,11 +66,14 @@ public class TempoLine {
      * @param tempoLine graphic representation of reproduction time
      */
     public TempoLine(Line tempoLine) {
-        this.tempoAnimation = new TranslateTransition();
         this.tempoLine = tempoLine;
-        this.tempoAnimation.setNode(this.tempoLine);
-        this.tempoAnimation.setInterpolator(Interpolator.LINEAR); // Don't ease
-        this.tempoAnimation.setOnFinished(event -> hideTempoLine());
+        this.tempoAnimation = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                PerformanceMetrics.animationFrame(now);
+                followPlayhead();
+            }
+        };
     }
 
     /**************************************************************************
@@ -88,22 +109,46 @@ public class TempoLine {
     public void updateTempoLine(double stopTime) {
         this.tempoAnimation.stop();
         this.tempoLine.setTranslateX(0);
-        this.tempoAnimation.setDuration(new Duration(stopTime * 10));
-        this.tempoAnimation.setToX(stopTime);
+        this.stopTick = stopTime;
         this.tempoLine.setVisible(true);
     }
 
     /**
-     * Accessor method for the animation field's play feature
+     * Starts moving the line along with the given player
+     *
+     * @param playhead the player whose position the line follows
      */
-    public void playAnimation() {
-        this.tempoAnimation.play();
+    public void playAnimation(Playhead playhead) {
+        this.playhead = playhead;
+        this.firstTick = Double.NaN;
+        this.tempoAnimation.start();
     }
 
     /**
-     * Accessor method for the animation field's stop feature
+     * Stops moving the line
      */
     public void stopAnimation() {
         this.tempoAnimation.stop();
+        PerformanceMetrics.animationStopped();
+        this.playhead = null;
+    }
+
+    /**
+     * Moves the line to the tick being heard, and hides it once the
+     * composition has finished or the player has stopped.
+     */
+    private void followPlayhead() {
+        double tick = this.playhead.getAudibleTickPosition();
+        if (Double.isNaN(this.firstTick)) {
+            this.firstTick = tick;
+        } else if (tick != this.firstTick) {
+            PerformanceMetrics.playheadMoved();
+        }
+        if (tick >= this.stopTick || !this.playhead.getIsPlaying()) {
+            stopAnimation();
+            hideTempoLine();
+        } else {
+            this.tempoLine.setTranslateX(tick);
+        }
     }
 }
@@ -0,0 +1,173 @@
+/*
+ * File: WavRenderer.java
+ * Names: Graham Chance, Jenny Lin, Ana Sofia Solis Canales, Mike Remondi
+ * Class: CS361
+ * Project: 4
+ * Due Date: October 11, 2016
+ */
+
+package proj4ChanceLinRemondiSolis;
+
+import com.sun.media.sound.AudioSynthesizer;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class renders a Sequence to a WAV file without playing it.
+ * The events are handed to a software synthesizer with their times
+ * already worked out, and the synthesizer's audio is pulled from it
+ * as fast as it can be computed instead of in real time.
+ *
+ * @author Graham Chance
+ * @author Jenny Lin
+ * @author Ana Sofia Solis Canales
+ * @author Mike Remondi
+ */
+public class WavRenderer {
+
+    /**************************************************************************
+     *                                                                        *
+     *                                 Field                                  *
+     *                               Constructor                              *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * The format of the rendered audio: 44.1kHz, 16 bit, stereo.
+     */
+    private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+    /**
+     * How long to keep rendering after the last event so notes can fade out.
+     */
+    private static final long RELEASE_MICROSECONDS = 2000000;
+
+    /**
+     * The tempo used until the sequence sets one, 120 beats per minute.
+     */
+    private static final int DEFAULT_MICROSECONDS_PER_BEAT = 500000;
+
+    /**
+     * The synthesizer that renders the audio
+     */
+    private AudioSynthesizer synthesizer;
+
+    /**
+     * Constructor
+     *
+     * @throws MidiUnavailableException if there is no software synthesizer,
+     *                                  or the program was not run with
+     *                                  --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED
+     */
+    public WavRenderer() throws MidiUnavailableException {
+        Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        try {
+            if (!(synthesizer instanceof AudioSynthesizer)) {
+                throw new MidiUnavailableException("No software synthesizer available");
+            }
+            this.synthesizer = (AudioSynthesizer) synthesizer;
+        } catch (LinkageError e) {
+            throw new MidiUnavailableException("Rendering needs --add-exports "
+                    + "java.desktop/com.sun.media.sound=ALL-UNNAMED");
+        }
+    }
+
+    /**************************************************************************
+     *                                                                        *
+     *                                Methods                                 *
+     *                                                                        *
+     **************************************************************************/
+
+
+    /**
+     * Renders a sequence to a WAV file.
+     *
+     * @param sequence the sequence to render
+     * @param file     the file to write to
+     * @return the length of the rendered audio in microseconds
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     * @throws IOException              if the file cannot be written
+     */
+    public long render(Sequence sequence, File file)
+            throws MidiUnavailableException, IOException {
+        AudioInputStream stream = this.synthesizer.openStream(FORMAT, null);
+        try {
+            long length = sendEvents(sequence, this.synthesizer.getReceiver())
+                    + RELEASE_MICROSECONDS;
+            long frames = (long) (FORMAT.getFrameRate() * length / 1000000);
+            AudioSystem.write(new AudioInputStream(stream, FORMAT, frames),
+                    AudioFileFormat.Type.WAVE, file);
+            return length;
+        } finally {
+            this.synthesizer.close();
+        }
+    }
+
+    /**
+     * Sends every event of a sequence to a receiver in time order,
+     * stamped with the time in microseconds at which it is to be played.
+     *
+     * @param sequence the sequence whose events are sent
+     * @param receiver the synthesizer's receiver
+     * @return the time of the last event in microseconds
+     */
+    private static long sendEvents(Sequence sequence, Receiver receiver) {
+        Track[] tracks = sequence.getTracks();
+        int[] nextEvents = new int[tracks.length];
+        int resolution = sequence.getResolution();
+        int microsecondsPerBeat = DEFAULT_MICROSECONDS_PER_BEAT;
+        long lastTick = 0;
+        double microseconds = 0;
+
+        while (true) {
+            // pick the earliest event still waiting in any track
+            int earliestTrack = -1;
+            long earliestTick = Long.MAX_VALUE;
+            for (int i = 0; i < tracks.length; i++) {
+                if (nextEvents[i] < tracks[i].size()) {
+                    long tick = tracks[i].get(nextEvents[i]).getTick();
+                    if (tick < earliestTick) {
+                        earliestTick = tick;
+                        earliestTrack = i;
+                    }
+                }
+            }
+            if (earliestTrack < 0) {
+                return (long) microseconds;
+            }
+
+            MidiEvent event = tracks[earliestTrack].get(nextEvents[earliestTrack]++);
+            long tick = Math.max(event.getTick(), 0);
+            if (tick > lastTick) {
+                microseconds += (double) (tick - lastTick) * microsecondsPerBeat / resolution;
+                lastTick = tick;
+            }
+            MidiMessage message = event.getMessage();
+            if (message instanceof MetaMessage) {
+                MetaMessage meta = (MetaMessage) message;
+                if (meta.getType() == 0x51 && meta.getData().length == 3) {
+                    byte[] data = meta.getData();
+                    microsecondsPerBeat = ((data[0] & 0xFF) << 16) |
+                            ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+                }
+            } else {
+                receiver.send(message, (long) microseconds);
+            }
+        }
+    }
+}